@@ -1,18 +1,34 @@
 package com.igknighters;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.igknighters.constants.ConstValues;
 import com.igknighters.constants.ConstValues.kSwerve;
+import com.igknighters.constants.ConstValues.kVision;
 import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveSampleKinematics;
+import com.igknighters.subsystems.vision.VisionCoalescer;
 import com.igknighters.subsystems.vision.camera.Camera.VisionPoseEstimate;
+import com.igknighters.util.PoseHistory;
 import com.igknighters.util.TwistyPoseEst;
 import com.igknighters.util.geom.GeomUtil;
+import com.igknighters.util.geom.PrimitiveSE2;
 import com.igknighters.util.plumbing.Channel;
+import com.igknighters.util.plumbing.ChannelRecorder;
+import com.igknighters.util.plumbing.ChannelReplayer;
+import com.igknighters.util.plumbing.ChannelStats;
 import com.igknighters.util.plumbing.Channel.Receiver;
 import com.igknighters.util.plumbing.Channel.Sender;
 import com.igknighters.util.plumbing.Channel.ThreadSafetyMarker;
+import com.igknighters.util.plumbing.PrimitiveChannel;
 
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Threads;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.Field2d;
 import monologue.LogSink;
@@ -22,16 +38,66 @@ import monologue.Monologue;
 public class Localizer implements Logged {
 
     private final Channel<VisionPoseEstimate> visionDataChannel = new Channel<>();
-    private final Channel<SwerveDriveSample> swerveDataChannel = new Channel<>();
+    private final PrimitiveChannel<SwerveDriveSample> swerveDataChannel = new PrimitiveChannel<>(SwerveDriveSample.LENGTH);
 
     private final Receiver<VisionPoseEstimate> visionDataReceiver = visionDataChannel.openReceiver(8, ThreadSafetyMarker.CONCURRENT);
-    private final Receiver<SwerveDriveSample> swerveDataReveiver = swerveDataChannel.openReceiver(32, ThreadSafetyMarker.CONCURRENT);
+    private final PrimitiveChannel.Receiver<SwerveDriveSample> swerveDataReveiver = swerveDataChannel.openReceiver(32);
+    /**
+     * The samples swerve data is received into every fusion step, reused every step.
+     * Sized to match the receiver so a full receiver can be drained at once.
+     */
+    private final SwerveDriveSample[] swerveSamples = new SwerveDriveSample[32];
+    /** The vision samples received every fusion step, sorted by timestamp before coalescing */
+    private final ArrayList<VisionPoseEstimate> visionSamples = new ArrayList<>();
+    /** The coalesced vision samples ready to fuse this step */
+    private final ArrayList<VisionPoseEstimate> coalescedVisionSamples = new ArrayList<>();
+    private final VisionCoalescer visionCoalescer = new VisionCoalescer(
+        kVision.COALESCE_WINDOW,
+        kVision.MAX_FUSION_HZ,
+        kVision.EXPECTED_LATENCY
+    );
+    private static final Comparator<VisionPoseEstimate> BY_TIMESTAMP = Comparator.comparingDouble(VisionPoseEstimate::timestamp);
+    private double latestSwerveTimestamp = 0.0;
+    private final SwerveSampleKinematics swerveKinematics = new SwerveSampleKinematics(kSwerve.MODULE_CHASSIS_OFFSETS);
+
+    private final ChannelStats visionDataStats = visionDataReceiver.instrument();
+    private final ChannelStats swerveDataStats = swerveDataReveiver.instrument();
 
     private final TwistyPoseEst poseEstimator;
+    /** The estimated pose after every drive sample, about 2 seconds at 250hz */
+    private final PoseHistory poseHistory = new PoseHistory(512);
+    /** Where recorded poses are corrected from once vision lands behind them */
+    private final PoseHistory.PoseSource estimatorPoses;
+    private final double[] historyScratch = new double[PrimitiveSE2.POSE_LENGTH];
+
+    private final double[] velocityScratch = new double[PrimitiveSE2.TWIST_LENGTH];
 
-    private Pose2d latestPose = GeomUtil.POSE2D_CENTER;
-    private Pose2d latestVisionPose = GeomUtil.POSE2D_CENTER;
-    private double latestVisionTimestamp = 0;
+    /**
+     * The fused estimate at a point in time, published as a whole so readers on any thread
+     * always see a pose and velocity from the same fusion step.
+     *
+     * @param pose the estimated pose
+     * @param vxMetersPerSecond the robot relative x velocity measured by odometry
+     * @param vyMetersPerSecond the robot relative y velocity measured by odometry
+     * @param omegaRadiansPerSecond the angular velocity measured by odometry
+     * @param timestamp the FPGA timestamp of the newest odometry sample in the estimate
+     */
+    public static record PoseSnapshot(
+        Pose2d pose,
+        double vxMetersPerSecond,
+        double vyMetersPerSecond,
+        double omegaRadiansPerSecond,
+        double timestamp
+    ) {}
+
+    private volatile PoseSnapshot latestSnapshot = new PoseSnapshot(GeomUtil.POSE2D_CENTER, 0.0, 0.0, 0.0, 0.0);
+    private volatile Pose2d latestVisionPose = GeomUtil.POSE2D_CENTER;
+    private volatile double latestVisionTimestamp = 0;
+    /** A reset requested from any thread, applied by whichever thread fuses next */
+    private final AtomicReference<Pose2d> pendingReset = new AtomicReference<>();
+
+    /** The thread fusing samples as they arrive, null when fusion runs in {@link #update()} */
+    private Thread fusionThread = null;
 
     private final Field2d field;
     public static record NamedPositions(String name, Pose2d[] positions) {}
@@ -39,10 +105,16 @@ public class Localizer implements Logged {
     private final Receiver<NamedPositions> namedPositionsReceiver = namedPositionsChannel.openReceiver(24, ThreadSafetyMarker.SEQUENTIAL);
 
     private final Channel<ChassisSpeeds> velocityChannel = new Channel<>();
+    private final Channel<Pose2d> resetChannel = new Channel<>();
+    private final Sender<Pose2d> resetSender = resetChannel.sender();
 
     public Localizer() {
 
         poseEstimator = new TwistyPoseEst();
+        estimatorPoses = poseEstimator::getPoseAt;
+        for (int i = 0; i < swerveSamples.length; i++) {
+            swerveSamples[i] = new SwerveDriveSample();
+        }
 
         field = new Field2d();
     }
@@ -55,7 +127,7 @@ public class Localizer implements Logged {
         return visionDataChannel.sender();
     }
 
-    public Sender<SwerveDriveSample> swerveDataSender() {
+    public PrimitiveChannel.Sender<SwerveDriveSample> swerveDataSender() {
         return swerveDataChannel.sender();
     }
 
@@ -67,49 +139,235 @@ public class Localizer implements Logged {
         return velocityChannel;
     }
 
+    /**
+     * @return the channel every odometry sample is sent through, for consumers besides the localizer
+     */
+    public PrimitiveChannel<SwerveDriveSample> swerveDataChannel() {
+        return swerveDataChannel;
+    }
+
+    /**
+     * @return a channel of every pose the localizer is reset to, sent by the thread that requested the reset
+     */
+    public Channel<Pose2d> resetChannel() {
+        return resetChannel;
+    }
+
+    /**
+     * Records the swerve, vision and velocity channels
+     *
+     * @param recorder the recorder to record with
+     */
+    public void recordChannels(ChannelRecorder recorder) {
+        recorder.record("/Channels/Localizer/SwerveData", swerveDataChannel);
+        recorder.record("/Channels/Localizer/VisionData", visionDataChannel, VisionPoseEstimate.struct);
+        recorder.record("/Channels/Localizer/Velocity", velocityChannel, ChassisSpeeds.struct);
+    }
+
+    /**
+     * Replays channels recorded with {@link #recordChannels(ChannelRecorder)} into this localizer,
+     * nothing else should be sending to these channels while replaying
+     *
+     * @param replayer the replayer to replay with
+     */
+    public void replayChannels(ChannelReplayer replayer) {
+        replayer.replay("/Channels/Localizer/SwerveData", swerveDataChannel, new SwerveDriveSample());
+        replayer.replay("/Channels/Localizer/VisionData", visionDataChannel, VisionPoseEstimate.struct);
+        replayer.replay("/Channels/Localizer/Velocity", velocityChannel, ChassisSpeeds.struct);
+    }
+
     public void reset(Pose2d pose) {
-        poseEstimator.resetPose(pose);
+        pendingReset.set(pose);
+        latestSnapshot = new PoseSnapshot(pose, 0.0, 0.0, 0.0, latestSnapshot.timestamp());
+        resetSender.send(pose);
     }
 
-    public void update() {
-        while (swerveDataReveiver.hasData()) {
-            var sample = swerveDataReveiver.recv();
+    /**
+     * Moves sample fusion off of the main loop onto its own thread that fuses
+     * odometry and vision as soon as odometry arrives, {@link #update()} then only updates visualizations.
+     *
+     * Calling this more than once does nothing.
+     */
+    public synchronized void startFusionThread() {
+        if (fusionThread != null) {
+            return;
+        }
+        fusionThread = new Thread(this::runFusion, "PoseFusionThread");
+        fusionThread.setDaemon(true);
+        fusionThread.start();
+    }
+
+    private void runFusion() {
+        if (RobotBase.isReal()) {
+            Threads.setCurrentThreadPriority(true, 1);
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            swerveDataReveiver.awaitData(ConstValues.PERIODIC_TIME);
+            fuse();
+        }
+    }
+
+    /**
+     * Feeds every pending sample into the estimator and publishes the new estimate,
+     * must only ever be called from one thread at a time.
+     *
+     * Vision frames from every camera are first coalesced into at most one sample per fusion period,
+     * then odometry and vision are merged by timestamp so each vision sample is added right before the first
+     * odometry sample after it, which lets the estimator recompose its history once per step
+     * instead of once per vision sample.
+     *
+     * Package private so the fusion benchmark can time it on its own.
+     */
+    void fuse() {
+        final Pose2d reset = pendingReset.getAndSet(null);
+        if (reset != null) {
+            poseEstimator.resetPose(reset);
+            poseHistory.clear();
+        }
+        int swerveCount = 0;
+        while (swerveCount < swerveSamples.length && swerveDataReveiver.recvInto(swerveSamples[swerveCount])) {
+            swerveCount++;
+        }
+        while (visionDataReceiver.hasData()) {
+            visionSamples.add(visionDataReceiver.recv());
+        }
+        visionSamples.sort(BY_TIMESTAMP);
+        // the estimator ignores vision older than its first drive sample,
+        // so odometry time is all a group needs to wait on
+        visionCoalescer.coalesce(
+            visionSamples,
+            swerveCount > 0 ? swerveSamples[swerveCount - 1].timestamp() : latestSwerveTimestamp,
+            coalescedVisionSamples
+        );
+        visionSamples.clear();
+
+        // vision lands behind odometry that was already recorded, those poses are rewritten after
+        double rewriteHistoryFrom = Double.POSITIVE_INFINITY;
+        int visionIndex = 0;
+        for (int i = 0; i < swerveCount; i++) {
+            final SwerveDriveSample swerveSample = swerveSamples[i];
+            while (visionIndex < coalescedVisionSamples.size()
+                    && coalescedVisionSamples.get(visionIndex).timestamp() <= swerveSample.timestamp()) {
+                final VisionPoseEstimate visionSample = coalescedVisionSamples.get(visionIndex++);
+                if (addVisionSample(visionSample) && visionSample.timestamp() <= latestSwerveTimestamp) {
+                    rewriteHistoryFrom = Math.min(rewriteHistoryFrom, visionSample.timestamp());
+                }
+            }
             poseEstimator.addDriveSample(
-                kSwerve.KINEMATICS,
-                sample.modulePositions(),
-                sample.timestamp(),
+                swerveKinematics,
+                swerveSample,
                 1.0);
+            poseEstimator.getEstimatedPose(historyScratch);
+            poseHistory.record(swerveSample.timestamp(), historyScratch);
+            latestSwerveTimestamp = swerveSample.timestamp();
         }
-        while (visionDataReceiver.hasData()) {
-            var sample = visionDataReceiver.recv();
-            latestVisionPose = sample.pose().toPose2d();
-            latestVisionTimestamp = sample.timestamp();
-            poseEstimator.addVisionSample(
-                latestVisionPose,
-                latestVisionTimestamp,
-                sample.trust()
-            );
+        while (visionIndex < coalescedVisionSamples.size()) {
+            final VisionPoseEstimate visionSample = coalescedVisionSamples.get(visionIndex++);
+            // only behind recorded odometry when no odometry came in this step
+            if (addVisionSample(visionSample) && visionSample.timestamp() <= latestSwerveTimestamp) {
+                rewriteHistoryFrom = Math.min(rewriteHistoryFrom, visionSample.timestamp());
+            }
+        }
+        coalescedVisionSamples.clear();
+        if (rewriteHistoryFrom != Double.POSITIVE_INFINITY) {
+            poseHistory.rewriteFrom(rewriteHistoryFrom, estimatorPoses);
+        }
+
+        if (pendingReset.get() != null) {
+            // a reset raced this fusion step, publishing now would clobber the reset pose
+            return;
+        }
+        poseEstimator.getDriveVelocity(velocityScratch);
+        latestSnapshot = new PoseSnapshot(
+            poseEstimator.getEstimatedPose(),
+            velocityScratch[PrimitiveSE2.DX],
+            velocityScratch[PrimitiveSE2.DY],
+            velocityScratch[PrimitiveSE2.DTHETA],
+            latestSwerveTimestamp
+        );
+    }
+
+    /**
+     * @return false if the estimator ignored the sample for being older than its history
+     */
+    private boolean addVisionSample(VisionPoseEstimate sample) {
+        latestVisionPose = sample.pose().toPose2d();
+        latestVisionTimestamp = sample.timestamp();
+        return poseEstimator.addVisionSample(
+            latestVisionPose,
+            latestVisionTimestamp,
+            sample.trust()
+        );
+    }
+
+    public void update() {
+        if (fusionThread == null) {
+            fuse();
         }
         while (namedPositionsReceiver.hasData()) {
             var namedPositions = namedPositionsReceiver.recv();
             field.getObject(namedPositions.name()).setPoses(namedPositions.positions());
         }
 
-        latestPose = poseEstimator.getEstimatedPose();
-        field.getRobotObject().setPose(latestPose);
+        field.getRobotObject().setPose(pose());
+    }
+
+    /**
+     * @return the latest fused estimate, safe to call from any thread
+     */
+    public PoseSnapshot snapshot() {
+        return latestSnapshot;
     }
 
     public Pose2d pose() {
-        return latestPose;
+        return latestSnapshot.pose();
+    }
+
+    /**
+     * @return the robot relative velocity measured by odometry in the latest fused estimate
+     */
+    public ChassisSpeeds velocity() {
+        final PoseSnapshot snapshot = latestSnapshot;
+        return new ChassisSpeeds(
+            snapshot.vxMetersPerSecond(),
+            snapshot.vyMetersPerSecond(),
+            snapshot.omegaRadiansPerSecond()
+        );
+    }
+
+    /**
+     * Finds where the robot was at a point in time, interpolating between odometry samples.
+     * Poses are corrected by vision that arrives after them, so this agrees with {@link #pose()}.
+     * Safe to call from any thread.
+     *
+     * @param timestamp the FPGA timestamp in seconds
+     * @return the estimated pose at the time, times outside the history are clamped to its ends
+     */
+    public Pose2d poseAt(double timestamp) {
+        Pose2d pose = poseHistory.poseAt(timestamp);
+        return pose == null ? pose() : pose;
+    }
+
+    /**
+     * Finds where the robot was at a point in time without allocating, see {@link #poseAt(double)}.
+     *
+     * @param timestamp the FPGA timestamp in seconds
+     * @param out the array to write the pose into, laid out as described in {@link PrimitiveSE2}
+     * @param scratch an array of at least {@link PoseHistory#SCRATCH_LENGTH}, one per calling thread
+     */
+    public void poseAt(double timestamp, double[] out, double[] scratch) {
+        if (!poseHistory.poseAt(timestamp, out, scratch)) {
+            PrimitiveSE2.fromPose2d(pose(), out);
+        }
     }
 
     public Translation2d translation() {
-        return latestPose.getTranslation();
+        return pose().getTranslation();
     }
 
     public Pose2d visionPose(double ageLimit) {
         if (latestVisionTimestamp + ageLimit < Timer.getFPGATimestamp()) {
-            return latestPose;
+            return pose();
         } else {
             return latestVisionPose;
         }
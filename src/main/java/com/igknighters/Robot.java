@@ -5,6 +5,7 @@ import java.util.function.BiConsumer;
 
 import monologue.Logged;
 import monologue.Monologue;
+import edu.wpi.first.wpilibj.DataLogManager;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
@@ -33,6 +34,7 @@ import com.igknighters.util.geom.AllianceFlip;
 import com.igknighters.util.geom.GeomUtil;
 import com.igknighters.util.logging.WatchdogSilencer;
 import com.igknighters.util.logging.Tracer;
+import com.igknighters.util.plumbing.ChannelRecorder;
 import com.igknighters.util.robots.UnitTestableRobot;
 
 import choreo.Choreo;
@@ -44,6 +46,7 @@ public class Robot extends UnitTestableRobot<Robot> implements Logged {
     private final CommandScheduler scheduler = CommandScheduler.getInstance();
 
     public final Localizer localizer = new Localizer();
+    private final ChannelRecorder channelRecorder;
 
     private final DriverController driverController;
     // private final OperatorController operatorController;
@@ -70,6 +73,16 @@ public class Robot extends UnitTestableRobot<Robot> implements Logged {
         ConstantHelper.applyRoboConst(ConstValues.class, robotID);
 
         localizer.publishField();
+        if (ConstValues.THREADED_POSE_FUSION && !isUnitTest()) {
+            localizer.startFusionThread();
+        }
+
+        if (ConstValues.RECORD_CHANNELS && !isUnitTest()) {
+            channelRecorder = new ChannelRecorder(DataLogManager.getLog());
+            localizer.recordChannels(channelRecorder);
+        } else {
+            channelRecorder = null;
+        }
 
         driverController = new DriverController(0, localizer);
         // operatorController = new OperatorController(1);
@@ -100,17 +113,19 @@ public class Robot extends UnitTestableRobot<Robot> implements Logged {
             umbrella.setupSimNoteDetection(localizer);
         }
 
+        final AutoController autoController = new AutoController(allSubsystems.swerve, localizer, AllianceFlip::isRed);
         autoChooser = new AutoChooser(
             Choreo.createAutoFactory(
                 allSubsystems.swerve.isPresent() ? allSubsystems.swerve.get() : new Subsystem() {},
                 localizer::pose,
-                new AutoController(allSubsystems.swerve),
+                autoController,
                 AllianceFlip::isRed,
                 new AutoBindings(),
                 (traj, starting) -> {
                     String msg = "[Auto] Trajectory " + traj.name() + " " + (starting ? "Started" : "Finished");
                     System.out.println(msg);
                     Monologue.log("AutoEvent", msg);
+                    autoController.trajectoryEvent(traj, starting);
                 }
             ),
             "/Choosers"
@@ -2,18 +2,25 @@ package com.igknighters.commands.autos;
 
 import java.util.Optional;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
+import com.igknighters.Localizer;
 import com.igknighters.constants.ConstValues.kAuto;
 import com.igknighters.subsystems.swerve.Swerve;
 
 import choreo.trajectory.SwerveSample;
+import choreo.trajectory.Trajectory;
 import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 
 public class AutoController implements BiConsumer<Pose2d, SwerveSample> {
     private final Swerve swerve;
+    private final Localizer localizer;
     private final boolean enabled;
+    private final BooleanSupplier mirror;
+    /** Follows trajectories on the odometry thread when {@link kAuto#HIGH_RATE_FOLLOWER} is on */
+    private final HighRateFollower follower;
     private final PIDController xController = new PIDController(
         kAuto.kTranslation.kP,
         kAuto.kTranslation.kI,
@@ -30,25 +37,68 @@ public class AutoController implements BiConsumer<Pose2d, SwerveSample> {
         kAuto.kRotation.kD
     );
 
-    public AutoController(Optional<Swerve> swerve) {
+    public AutoController(Optional<Swerve> swerve, Localizer localizer, BooleanSupplier mirror) {
+        this.mirror = mirror;
+        this.localizer = localizer;
         if (swerve.isEmpty()) {
             this.swerve = null;
             this.enabled = false;
+            this.follower = null;
             return;
         }
         this.swerve = swerve.get();
         this.enabled = true;
+        if (kAuto.HIGH_RATE_FOLLOWER) {
+            this.follower = new HighRateFollower(localizer::pose);
+            this.swerve.setHighRateController(follower);
+        } else {
+            this.follower = null;
+        }
         rController.enableContinuousInput(-Math.PI, Math.PI);
         xController.close();
         yController.close();
         rController.close();
     }
 
+    /**
+     * Starts and stops the high rate follower as trajectories start and finish,
+     * meant to be called from the trajectory logger.
+     *
+     * @param trajectory the trajectory
+     * @param starting if the trajectory is starting or finishing
+     */
+    public void trajectoryEvent(Trajectory<SwerveSample> trajectory, boolean starting) {
+        if (follower == null) {
+            return;
+        }
+        if (starting) {
+            follower.start(trajectory, mirror.getAsBoolean());
+        } else if (follower.isFollowing()) {
+            follower.stop();
+            // the final sample choreo feeds on finish was skipped while following,
+            // settle on it instead of leaving the modules on the follower's last setpoint
+            final SwerveSample last = trajectory.sampleAt(trajectory.getTotalTime(), mirror.getAsBoolean());
+            swerve.drive(
+                ChassisSpeeds.fromFieldRelativeSpeeds(
+                    last.vx,
+                    last.vy,
+                    last.omega,
+                    localizer.pose().getRotation()
+                ),
+                false
+            );
+        }
+    }
+
     @Override
     public void accept(Pose2d pose, SwerveSample referenceState) {
         if (!enabled) {
             return;
         }
+        if (follower != null && follower.isFollowing()) {
+            // the follower is driving from the odometry thread
+            return;
+        }
         double xFF = referenceState.vx;
         double yFF = referenceState.vy;
         double rotationFF = referenceState.omega;
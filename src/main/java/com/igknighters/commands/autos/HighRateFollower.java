@@ -0,0 +1,178 @@
+package com.igknighters.commands.autos;
+
+import java.util.function.Supplier;
+
+import com.igknighters.constants.ConstValues.kAuto;
+import com.igknighters.constants.ConstValues.kSwerve;
+
+import choreo.trajectory.SwerveSample;
+import choreo.trajectory.Trajectory;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Follows a Choreo trajectory from the swerve odometry thread instead of the main loop.
+ *
+ * The main loop only starts and stops a trajectory, every odometry sample the trajectory is
+ * sampled with a cursor that only moves forward and the feedback is computed against the freshest
+ * fused pose. {@link #get()} is meant to be handed to
+ * {@link com.igknighters.subsystems.swerve.Swerve#setHighRateController}.
+ */
+public class HighRateFollower implements Supplier<ChassisSpeeds> {
+    /** A trajectory being followed, the cursor is only touched by the odometry thread */
+    private static final class Run {
+        private final SwerveSample[] samples;
+        private final double startTime;
+        private int cursor = 0;
+        private volatile boolean finished = false;
+
+        private Run(SwerveSample[] samples, double startTime) {
+            this.samples = samples;
+            this.startTime = startTime;
+        }
+    }
+
+    /** The controllers are stepped every odometry sample, not every main loop */
+    private static final double PERIOD = 1.0 / kSwerve.ODOMETRY_HZ;
+
+    private final Supplier<Pose2d> poseSupplier;
+    private final PIDController xController = new PIDController(
+        kAuto.kTranslation.kP,
+        kAuto.kTranslation.kI,
+        kAuto.kTranslation.kD,
+        PERIOD
+    );
+    private final PIDController yController = new PIDController(
+        kAuto.kTranslation.kP,
+        kAuto.kTranslation.kI,
+        kAuto.kTranslation.kD,
+        PERIOD
+    );
+    private final PIDController rController = new PIDController(
+        kAuto.kRotation.kP,
+        kAuto.kRotation.kI,
+        kAuto.kRotation.kD,
+        PERIOD
+    );
+
+    private volatile Run run = null;
+    /** The run the controllers were last reset for, only touched by the odometry thread */
+    private Run controllersRun = null;
+
+    /**
+     * @param poseSupplier supplies the freshest fused pose, called from the odometry thread
+     */
+    public HighRateFollower(Supplier<Pose2d> poseSupplier) {
+        this.poseSupplier = poseSupplier;
+        rController.enableContinuousInput(-Math.PI, Math.PI);
+        xController.close();
+        yController.close();
+        rController.close();
+    }
+
+    /**
+     * Starts following a trajectory from its beginning, replacing any trajectory being followed
+     *
+     * @param trajectory the trajectory to follow
+     * @param mirror if the trajectory should be mirrored for the red alliance
+     */
+    public void start(Trajectory<SwerveSample> trajectory, boolean mirror) {
+        if (trajectory.samples().isEmpty()) {
+            run = null;
+            return;
+        }
+        final Trajectory<SwerveSample> traj = mirror ? trajectory.flipped() : trajectory;
+        run = new Run(traj.sampleArray(), Timer.getFPGATimestamp());
+    }
+
+    /**
+     * Stops following, the modules keep the last setpoint so the caller should command them after.
+     * Swerve drops any output computed before that command so the follower can't overwrite it.
+     */
+    public void stop() {
+        run = null;
+    }
+
+    /**
+     * @return if a trajectory is being followed
+     */
+    public boolean isFollowing() {
+        return run != null;
+    }
+
+    /**
+     * @return if the trajectory being followed has reached its final sample
+     */
+    public boolean isFinished() {
+        final Run r = run;
+        return r == null || r.finished;
+    }
+
+    /**
+     * Computes the chassis speeds for this instant, runs on the odometry thread
+     *
+     * @return the speeds to drive at or null if no trajectory is being followed
+     */
+    @Override
+    public ChassisSpeeds get() {
+        final Run r = run;
+        if (r == null) {
+            return null;
+        }
+        final Pose2d pose = poseSupplier.get();
+        if (pose == null) {
+            return null;
+        }
+        if (r != controllersRun) {
+            // a new trajectory must not inherit the last one's integral and error
+            xController.reset();
+            yController.reset();
+            rController.reset();
+            controllersRun = r;
+        }
+        final SwerveSample[] samples = r.samples;
+        final double t = Timer.getFPGATimestamp() - r.startTime;
+
+        // samples are only ever asked for in increasing time so the cursor never moves back
+        int cursor = r.cursor;
+        while (cursor < samples.length - 1 && samples[cursor + 1].t <= t) {
+            cursor++;
+        }
+        r.cursor = cursor;
+
+        final SwerveSample from = samples[cursor];
+        double x = from.x, y = from.y, heading = from.heading;
+        double vx = from.vx, vy = from.vy, omega = from.omega;
+        if (cursor < samples.length - 1) {
+            final SwerveSample to = samples[cursor + 1];
+            final double scale = MathUtil.clamp((t - from.t) / (to.t - from.t), 0.0, 1.0);
+            x = MathUtil.interpolate(from.x, to.x, scale);
+            y = MathUtil.interpolate(from.y, to.y, scale);
+            heading = from.heading + MathUtil.angleModulus(to.heading - from.heading) * scale;
+            vx = MathUtil.interpolate(from.vx, to.vx, scale);
+            vy = MathUtil.interpolate(from.vy, to.vy, scale);
+            omega = MathUtil.interpolate(from.omega, to.omega, scale);
+        } else {
+            r.finished = true;
+        }
+
+        final double xFeedback = xController.calculate(pose.getX(), x);
+        final double yFeedback = yController.calculate(pose.getY(), y);
+        final double rotationFeedback = rController.calculate(pose.getRotation().getRadians(), heading);
+
+        if (run != r) {
+            // stopped while computing, whatever stopped it has already commanded the modules
+            return null;
+        }
+
+        return ChassisSpeeds.fromFieldRelativeSpeeds(
+            vx + xFeedback,
+            vy + yFeedback,
+            omega + rotationFeedback,
+            pose.getRotation()
+        );
+    }
+}
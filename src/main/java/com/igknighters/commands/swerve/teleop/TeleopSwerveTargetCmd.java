@@ -2,6 +2,7 @@ package com.igknighters.commands.swerve.teleop;
 
 import com.igknighters.subsystems.swerve.RotationalController;
 import com.igknighters.subsystems.swerve.Swerve;
+import com.igknighters.subsystems.swerve.SwerveMeasuredState;
 import com.igknighters.util.geom.AllianceFlip;
 import com.igknighters.util.geom.GeomUtil;
 
@@ -49,6 +50,7 @@ public class TeleopSwerveTargetCmd extends TeleopSwerveBaseCmd {
 
     @Override
     public void execute() {
+        SwerveMeasuredState measured = swerve.getMeasuredState();
         Translation2d currentTranslation = translationSupplier.get();
         Translation2d targetTranslation = AllianceFlip.isBlue() ? target : AllianceFlip.flipTranslation(target);
 
@@ -60,11 +62,10 @@ public class TeleopSwerveTargetCmd extends TeleopSwerveBaseCmd {
                 vt.getY(),
                 0.0,
                 new Rotation2d(swerve.getYawRads()));
-        ChassisSpeeds currentChassisSpeeds = swerve.getChassisSpeed();
 
         ChassisSpeeds avgChassisSpeeds = new ChassisSpeeds(
-                (desiredChassisSpeeds.vxMetersPerSecond + currentChassisSpeeds.vxMetersPerSecond) / 2.0,
-                (desiredChassisSpeeds.vyMetersPerSecond + currentChassisSpeeds.vyMetersPerSecond) / 2.0,
+                (desiredChassisSpeeds.vxMetersPerSecond + measured.vx()) / 2.0,
+                (desiredChassisSpeeds.vyMetersPerSecond + measured.vy()) / 2.0,
                 0.0);
 
         double distance = currentTranslation.getDistance(targetTranslation);
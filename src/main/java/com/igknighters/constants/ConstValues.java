@@ -60,6 +60,8 @@ public final class ConstValues {
     public static final boolean DEMO = false; // this should be false for competition
     public static final boolean SUNLIGHT = false; // this should be false for competition
     public static final double PERIODIC_TIME = 0.02; // 20ms
+    public static final boolean THREADED_POSE_FUSION = false; // fuse localizer samples on their own thread
+    public static final boolean RECORD_CHANNELS = false; // record localizer inputs to the datalog for replay
     public static final int PDH_CAN_ID = 61;
 
     public static final class kRobotCollisionGeometry {
@@ -128,6 +130,36 @@ public final class ConstValues {
         public static final double MAX_Z_DELTA = 0.2;
         public static final double MAX_ANGLE_DELTA = 5.0 * Conv.DEGREES_TO_RADIANS;
 
+        /** Estimates every camera on its own thread as frames arrive instead of on the main loop */
+        public static final boolean ASYNC_CAMERAS = true;
+        /** Estimates captured within this many seconds of each other are fused as one */
+        public static final double COALESCE_WINDOW = 0.01;
+        /** The most vision estimates fused into the localizer per second of capture time */
+        public static final double MAX_FUSION_HZ = 50.0;
+        /** How long a coalesced group waits on frames still in flight, later frames join the next group */
+        public static final double EXPECTED_LATENCY = 0.06;
+
+        /**
+         * The simulated cameras used in place of the real ones in simulation
+         */
+        public static final class kSim {
+            /** Simulates every camera config instead of disabling them, never in unit tests */
+            public static final boolean ENABLED = true;
+            public static final double FPS = 30.0;
+            /** The time between a frame being captured and its estimate arriving */
+            public static final double LATENCY = 0.035;
+            /** The standard deviation of the translation noise per meter to the tags */
+            public static final double TRANSLATION_NOISE = 0.01;
+            /** The standard deviation of the heading noise per meter to the tags */
+            public static final double ROTATION_NOISE = 0.5 * Conv.DEGREES_TO_RADIANS;
+            public static final double AMBIGUITY_PER_METER = 0.01;
+            public static final double HORIZONTAL_FOV = 70.0 * Conv.DEGREES_TO_RADIANS;
+            public static final double VERTICAL_FOV = 50.0 * Conv.DEGREES_TO_RADIANS;
+            public static final double MAX_RANGE = 6.0;
+            /** Tags seen further than this from straight on are not detected */
+            public static final double MAX_TAG_ANGLE = 70.0 * Conv.DEGREES_TO_RADIANS;
+        }
+
         private static enum CameraConfigs {
             CRASH(
                     new CameraConfig[] {
@@ -192,6 +224,13 @@ public final class ConstValues {
         public static final boolean INVERT_GYRO = false;
         public static final String CANBUS = "DriveBus";
 
+        /** The odometry rate at startup, the real robot adapts it between the min and max */
+        public static final int ODOMETRY_HZ = 250;
+        public static final int MIN_ODOMETRY_HZ = 100;
+        public static final int MAX_ODOMETRY_HZ = 400;
+        /** Applies drive requests to the modules from the odometry thread instead of the main loop */
+        public static final boolean HIGH_RATE_MODULE_CONTROL = false;
+
         /* Drivetrain Constants */
         public static final double TRACK_WIDTH = 0.551942;
         public static final double WHEEL_DIAMETER = 4.0 * Conv.INCHES_TO_METERS;
@@ -349,6 +388,8 @@ public final class ConstValues {
             public static final double kD = 0.0;
         }
         public static final double AUTO_SHOOTER_RPM = 6000.0;
+        /** Follows trajectories on the swerve odometry thread instead of the main loop */
+        public static final boolean HIGH_RATE_FOLLOWER = false;
     }
 
     public static final class kUmbrella {
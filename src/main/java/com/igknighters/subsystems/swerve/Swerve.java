@@ -6,8 +6,11 @@ import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
 
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import com.igknighters.Localizer;
 import com.igknighters.Robot;
@@ -26,6 +29,8 @@ import com.igknighters.subsystems.swerve.module.SwerveModuleSim;
 import com.igknighters.subsystems.swerve.odometryThread.RealSwerveOdometryThread;
 import com.igknighters.subsystems.swerve.odometryThread.SimSwerveOdometryThread;
 import com.igknighters.subsystems.swerve.odometryThread.SwerveOdometryThread;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveSampleKinematics;
+import com.igknighters.util.geom.PrimitiveSE2;
 import com.igknighters.util.logging.Tracer;
 import com.igknighters.util.plumbing.Channel.Sender;
 import com.igknighters.constants.ConstValues;
@@ -48,6 +53,9 @@ import com.igknighters.constants.ConstValues;
 public class Swerve implements LockFullSubsystem {
     private static final ChassisSpeeds ZERO_SPEEDS = new ChassisSpeeds();
 
+    /** A drive request handed from the main loop to the odometry thread */
+    private static record DriveRequest(ChassisSpeeds speeds, boolean isOpenLoop) {}
+
     private final Gyro gyro;
     private final SwerveModule[] swerveMods;
     private final SwerveOdometryThread odometryThread;
@@ -57,12 +65,42 @@ public class Swerve implements LockFullSubsystem {
 
     private final Sender<ChassisSpeeds> velocitySender;
 
+    private final SwerveSampleKinematics measuredKinematics = new SwerveSampleKinematics(kSwerve.MODULE_CHASSIS_OFFSETS);
+    /** Scratch space for building the measured state, only touched by the main loop */
+    private final double[] measuredModuleSpeeds = new double[4];
+    private final double[] measuredModuleAngles = new double[4];
+    private final double[] measuredModulePositions = new double[4];
+    private final double[] measuredChassisSpeeds = new double[PrimitiveSE2.TWIST_LENGTH];
+    private volatile SwerveMeasuredState measuredState = new SwerveMeasuredState(
+        0.0, 0.0, 0.0, 0.0, 0.0, 0.0,
+        measuredModuleSpeeds,
+        measuredModuleAngles,
+        measuredModulePositions
+    );
+
     private Optional<TeleopSwerveBaseCmd> defaultCommand = Optional.empty();
 
+    /**
+     * The latest drive request from {@link #drive} when {@link kSwerve#HIGH_RATE_MODULE_CONTROL} is on
+     * or from the high rate controller, the odometry thread applies it on its next sample.
+     * Null when the modules are being controlled directly.
+     */
+    private final AtomicReference<DriveRequest> driveMailbox = new AtomicReference<>();
+    /** The last request applied by the odometry thread, only touched by the odometry thread */
+    private DriveRequest appliedDriveRequest = null;
+    /** A controller run on the odometry thread every sample, see {@link #setHighRateController} */
+    private volatile Supplier<ChassisSpeeds> highRateController = null;
+    /**
+     * Bumped by every command from the main loop, only written holding the {@link #swerveMods} lock.
+     * A high rate controller's output is dropped if a command came in while it was computing.
+     */
+    private volatile long commandGeneration = 0;
+
     public Swerve(final Localizer localizer) {
         if (Robot.isReal()) {
             RealSwerveOdometryThread ot = new RealSwerveOdometryThread(
-                250,
+                kSwerve.ODOMETRY_HZ,
+                kSwerve.CANBUS,
                 rots -> (rots / kSwerve.DRIVE_GEAR_RATIO) * kSwerve.WHEEL_CIRCUMFERENCE,
                 localizer.swerveDataSender()
             );
@@ -75,14 +113,15 @@ public class Swerve implements LockFullSubsystem {
             gyro = new GyroReal(ot);
             odometryThread = ot;
         } else {
-            SimSwerveOdometryThread ot = new SimSwerveOdometryThread(250, localizer.swerveDataSender());
+            SimSwerveOdometryThread ot = new SimSwerveOdometryThread(kSwerve.ODOMETRY_HZ, localizer.swerveDataSender());
             swerveMods = new SwerveModule[] {
                     new SwerveModuleSim(ConstValues.kSwerve.kMod0.CONSTANTS, ot),
                     new SwerveModuleSim(ConstValues.kSwerve.kMod1.CONSTANTS, ot),
                     new SwerveModuleSim(ConstValues.kSwerve.kMod2.CONSTANTS, ot),
                     new SwerveModuleSim(ConstValues.kSwerve.kMod3.CONSTANTS, ot)
             };
-            gyro = new GyroSim(this::getChassisSpeed, ot);
+            // the modules have updated by the time the gyro runs, see periodic
+            gyro = new GyroSim(() -> measuredChassisSpeeds[PrimitiveSE2.DTHETA], ot);
             odometryThread = ot;
         }
 
@@ -90,6 +129,8 @@ public class Swerve implements LockFullSubsystem {
 
         setpointProcessor.setDisabled(true);
 
+        odometryThread.setSampleCallback(this::onOdometrySample);
+
         odometryThread.start();
 
         velocitySender = localizer.velocityChannel().sender();
@@ -98,11 +139,71 @@ public class Swerve implements LockFullSubsystem {
     public void drive(ChassisSpeeds speeds, boolean isOpenLoop) {
         log("targetChassisSpeed", speeds);
 
+        if (kSwerve.HIGH_RATE_MODULE_CONTROL) {
+            synchronized (swerveMods) {
+                commandGeneration++;
+                driveMailbox.set(new DriveRequest(speeds, isOpenLoop));
+            }
+            return;
+        }
+
         setModuleStates(
             kSwerve.KINEMATICS.toSwerveModuleStates(speeds),
                 isOpenLoop);
     }
 
+    /**
+     * Sets a controller to run on the odometry thread every sample, its output is driven closed loop
+     * right away. While it returns speeds it owns the drivetrain, nothing else should call {@link #drive}.
+     *
+     * @param controller the controller, returns null to leave the modules alone, or null to remove it
+     */
+    public void setHighRateController(Supplier<ChassisSpeeds> controller) {
+        synchronized (swerveMods) {
+            commandGeneration++;
+            highRateController = controller;
+        }
+    }
+
+    private void onOdometrySample() {
+        final Supplier<ChassisSpeeds> controller = highRateController;
+        if (controller != null) {
+            final long generation = commandGeneration;
+            final ChassisSpeeds speeds = controller.get();
+            if (speeds != null) {
+                synchronized (swerveMods) {
+                    // whatever commanded the modules while the controller was computing,
+                    // like settling after a trajectory stops, must not be overwritten by it
+                    if (generation == commandGeneration) {
+                        driveMailbox.set(new DriveRequest(speeds, false));
+                    }
+                }
+            }
+        }
+        applyDriveRequest();
+    }
+
+    /**
+     * Applies the latest drive request to the modules, runs on the odometry thread.
+     * A request is only applied once, the motor controllers hold the setpoint until the next one.
+     */
+    private void applyDriveRequest() {
+        // read under the lock so direct control can't slip in between reading and applying a request
+        synchronized (swerveMods) {
+            final DriveRequest request = driveMailbox.get();
+            if (request == null || request == appliedDriveRequest) {
+                return;
+            }
+            appliedDriveRequest = request;
+
+            SwerveModuleState[] desiredStates = kSwerve.KINEMATICS.toSwerveModuleStates(request.speeds());
+            SwerveDriveKinematics.desaturateWheelSpeeds(desiredStates, ConstValues.kSwerve.MAX_DRIVE_VELOCITY);
+            for (SwerveModule module : swerveMods) {
+                module.setDesiredState(desiredStates[module.getModuleNumber()], request.isOpenLoop());
+            }
+        }
+    }
+
     /**
      * Offsets the gyro to define the current yaw as the supplied value
      * 
@@ -119,12 +220,15 @@ public class Swerve implements LockFullSubsystem {
         return gyro.getYawRads();
     }
 
+    /**
+     * @return The state measured this cycle, prefer this over the allocating getters
+     */
+    public SwerveMeasuredState getMeasuredState() {
+        return measuredState;
+    }
+
     public SwerveModulePosition[] getModulePositions() {
-        SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
-        for (SwerveModule module : swerveMods) {
-            modulePositions[module.getModuleNumber()] = module.getCurrentPosition();
-        }
-        return modulePositions;
+        return measuredState.modulePositions();
     }
 
     public void setModuleStates(SwerveModuleState[] desiredStates, boolean isOpenLoop) {
@@ -132,26 +236,34 @@ public class Swerve implements LockFullSubsystem {
 
         log("regurgutatedChassisSpeed", kSwerve.KINEMATICS.toChassisSpeeds(desiredStates));
 
-        for (SwerveModule module : swerveMods) {
-            module.setDesiredState(desiredStates[module.getModuleNumber()], isOpenLoop);
+        synchronized (swerveMods) {
+            // direct control takes over from the odometry thread until the next drive request
+            commandGeneration++;
+            driveMailbox.set(null);
+            for (SwerveModule module : swerveMods) {
+                module.setDesiredState(desiredStates[module.getModuleNumber()], isOpenLoop);
+            }
         }
     }
 
     public SwerveModuleState[] getModuleStates() {
-        SwerveModuleState[] states = new SwerveModuleState[4];
-        for (SwerveModule module : swerveMods) {
-            states[module.getModuleNumber()] = module.getCurrentState();
-        }
-        return states;
+        return measuredState.moduleStates();
     }
 
+    /**
+     * @return The robot relative speeds measured this cycle, shared and must not be modified
+     */
     public ChassisSpeeds getChassisSpeed() {
-        return kSwerve.KINEMATICS.toChassisSpeeds(getModuleStates());
+        return measuredState.chassisSpeeds();
     }
 
     public void setVoltageOut(double voltage, Rotation2d angle) {
-        for (SwerveModule module : swerveMods) {
-            module.setVoltageOut(voltage, angle);
+        synchronized (swerveMods) {
+            commandGeneration++;
+            driveMailbox.set(null);
+            for (SwerveModule module : swerveMods) {
+                module.setVoltageOut(voltage, angle);
+            }
         }
     }
 
@@ -159,17 +271,42 @@ public class Swerve implements LockFullSubsystem {
     public void periodic() {
         Tracer.startTrace("SwervePeriodic");
 
+        // the odometry thread may be writing setpoints to the modules in high rate mode
+        synchronized (swerveMods) {
+            for (SwerveModule module : swerveMods) {
+                Tracer.traceFunc("SwerveModule[" + module.getModuleNumber() + "]", module::periodic);
+            }
+        }
+
         for (SwerveModule module : swerveMods) {
-            Tracer.traceFunc("SwerveModule[" + module.getModuleNumber() + "]", module::periodic);
+            final int i = module.getModuleNumber();
+            measuredModuleSpeeds[i] = module.driveVeloMPS;
+            measuredModuleAngles[i] = module.angleAbsoluteRads;
+            measuredModulePositions[i] = module.drivePositionMeters;
         }
+        measuredKinematics.toChassisSpeeds(measuredModuleSpeeds, measuredModuleAngles, measuredChassisSpeeds);
 
         Tracer.traceFunc("Gyro", gyro::periodic);
 
+        measuredState = new SwerveMeasuredState(
+            Timer.getFPGATimestamp(),
+            measuredChassisSpeeds[PrimitiveSE2.DX],
+            measuredChassisSpeeds[PrimitiveSE2.DY],
+            measuredChassisSpeeds[PrimitiveSE2.DTHETA],
+            gyro.getYawRads(),
+            gyro.yawVelRadsPerSec,
+            measuredModuleSpeeds,
+            measuredModuleAngles,
+            measuredModulePositions
+        );
+
         if (DriverStation.isDisabled()) {
             log("targetChassisSpeed", ZERO_SPEEDS);
+            // don't resume a stale request when enabled again
+            driveMailbox.set(null);
         }
 
-        ChassisSpeeds measuredSpeeds = getChassisSpeed();
+        ChassisSpeeds measuredSpeeds = measuredState.chassisSpeeds();
         log("measuredChassisSpeed", measuredSpeeds);
         velocitySender.send(measuredSpeeds);
 
@@ -0,0 +1,163 @@
+package com.igknighters.subsystems.swerve;
+
+import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * The measured state of the drivetrain for a single cycle.
+ *
+ * {@link Swerve} builds one per periodic after the modules and gyro have updated,
+ * so every consumer in a cycle sees the same values and the forward kinematics run once.
+ * A state never changes after it is built and can be handed to any thread.
+ */
+public final class SwerveMeasuredState {
+    private static final int MODULE_COUNT = SwerveDriveSample.MODULE_COUNT;
+
+    private final double timestamp;
+    private final double vx, vy, omega;
+    private final double yawRads, yawRateRadsPerSec;
+    private final double[] moduleSpeeds = new double[MODULE_COUNT];
+    private final double[] moduleAngles = new double[MODULE_COUNT];
+    private final double[] modulePositions = new double[MODULE_COUNT];
+    private final ChassisSpeeds chassisSpeeds;
+
+    /**
+     * The arrays are copied so the caller can reuse them
+     *
+     * @param timestamp the FPGA timestamp of the cycle in seconds
+     * @param vx the robot relative x velocity in meters per second
+     * @param vy the robot relative y velocity in meters per second
+     * @param omega the angular velocity from the modules in radians per second
+     * @param yawRads the yaw of the gyro in radians
+     * @param yawRateRadsPerSec the yaw rate of the gyro in radians per second
+     * @param moduleSpeeds the speed of every module in meters per second
+     * @param moduleAngles the angle of every module in radians
+     * @param modulePositions the distance every module has driven in meters
+     */
+    public SwerveMeasuredState(
+        double timestamp,
+        double vx,
+        double vy,
+        double omega,
+        double yawRads,
+        double yawRateRadsPerSec,
+        double[] moduleSpeeds,
+        double[] moduleAngles,
+        double[] modulePositions
+    ) {
+        this.timestamp = timestamp;
+        this.vx = vx;
+        this.vy = vy;
+        this.omega = omega;
+        this.yawRads = yawRads;
+        this.yawRateRadsPerSec = yawRateRadsPerSec;
+        System.arraycopy(moduleSpeeds, 0, this.moduleSpeeds, 0, MODULE_COUNT);
+        System.arraycopy(moduleAngles, 0, this.moduleAngles, 0, MODULE_COUNT);
+        System.arraycopy(modulePositions, 0, this.modulePositions, 0, MODULE_COUNT);
+        this.chassisSpeeds = new ChassisSpeeds(vx, vy, omega);
+    }
+
+    /**
+     * @return the FPGA timestamp of the cycle in seconds
+     */
+    public double timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the robot relative x velocity in meters per second
+     */
+    public double vx() {
+        return vx;
+    }
+
+    /**
+     * @return the robot relative y velocity in meters per second
+     */
+    public double vy() {
+        return vy;
+    }
+
+    /**
+     * @return the angular velocity from the modules in radians per second
+     */
+    public double omega() {
+        return omega;
+    }
+
+    /**
+     * This does not see a {@link Swerve#setYaw} until the next cycle,
+     * field relative control should read {@link Swerve#getYawRads()} instead.
+     *
+     * @return the yaw of the gyro in radians
+     */
+    public double yawRads() {
+        return yawRads;
+    }
+
+    /**
+     * @return the yaw rate of the gyro in radians per second
+     */
+    public double yawRateRadsPerSec() {
+        return yawRateRadsPerSec;
+    }
+
+    /**
+     * @param moduleId the module to get the speed of
+     * @return the speed of the module in meters per second
+     */
+    public double moduleSpeed(int moduleId) {
+        return moduleSpeeds[moduleId];
+    }
+
+    /**
+     * @param moduleId the module to get the angle of
+     * @return the angle of the module in radians
+     */
+    public double moduleAngleRads(int moduleId) {
+        return moduleAngles[moduleId];
+    }
+
+    /**
+     * @param moduleId the module to get the position of
+     * @return the distance the module has driven in meters
+     */
+    public double modulePosition(int moduleId) {
+        return modulePositions[moduleId];
+    }
+
+    /**
+     * The speeds are shared by every caller of this state and must not be modified.
+     *
+     * @return the robot relative chassis speeds
+     */
+    public ChassisSpeeds chassisSpeeds() {
+        return chassisSpeeds;
+    }
+
+    /**
+     * @return a new array of the module states
+     */
+    public SwerveModuleState[] moduleStates() {
+        SwerveModuleState[] states = new SwerveModuleState[MODULE_COUNT];
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            states[i] = new SwerveModuleState(moduleSpeeds[i], Rotation2d.fromRadians(moduleAngles[i]));
+        }
+        return states;
+    }
+
+    /**
+     * @return a new array of the module positions
+     */
+    public SwerveModulePosition[] modulePositions() {
+        SwerveModulePosition[] positions = new SwerveModulePosition[MODULE_COUNT];
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            positions[i] = new SwerveModulePosition(modulePositions[i], Rotation2d.fromRadians(moduleAngles[i]));
+        }
+        return positions;
+    }
+}
@@ -1,18 +1,13 @@
 package com.igknighters.subsystems.swerve;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.geometry.Twist2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
 
 import com.igknighters.constants.ConstValues;
 import com.igknighters.constants.ConstValues.kSwerve;
-import com.igknighters.util.geom.GeomUtil;
 import com.igknighters.util.logging.Tracer;
 
 /**
@@ -29,12 +24,69 @@ import com.igknighters.util.logging.Tracer;
  * intermediate state that is
  * kinematically infeasible (and can result in wheel slip or robot heading drift
  * as a result).
+ *
+ * <p>
+ * Everything is done on primitives held by the processor, the inverse kinematics
+ * are solved in closed form per module and a call allocates nothing, so it is cheap
+ * enough to run at the odometry rate. The previous setpoint is kept between calls,
+ * so a processor must only be used from one thread.
  */
 public class SwerveSetpointProcessor {
-    private static final ChassisSpeeds ZERO_CHASSIS_SPEED = new ChassisSpeeds();
-    private static final SwerveModuleState ZERO_MODULE_STATE = new SwerveModuleState(0, GeomUtil.ROTATION2D_ZERO);
+    private static final int MODULE_COUNT = 4;
+    private static final int STEERING_MAX_ITERATIONS = 8;
+    private static final int DRIVE_MAX_ITERATIONS = 10;
+
+    /**
+     * A setpoint stored as primitives, the processor reuses its setpoints
+     * so one returned by {@link SwerveSetpointProcessor#processSetpoint} is only valid until the next call.
+     */
+    public static final class SwerveSetpoint {
+        private double vx, vy, omega;
+        private final double[] moduleSpeeds = new double[MODULE_COUNT];
+        private final double[] moduleAngles = new double[MODULE_COUNT];
+
+        /** @return the chassis x velocity in meters per second */
+        public double vx() {
+            return vx;
+        }
+
+        /** @return the chassis y velocity in meters per second */
+        public double vy() {
+            return vy;
+        }
+
+        /** @return the chassis angular velocity in radians per second */
+        public double omega() {
+            return omega;
+        }
+
+        /**
+         * @param moduleId the module to get the speed of
+         * @return the speed of the module in meters per second, can be negative
+         */
+        public double moduleSpeed(int moduleId) {
+            return moduleSpeeds[moduleId];
+        }
 
-    public static record SwerveSetpoint(ChassisSpeeds chassisSpeeds, SwerveModuleState[] moduleStates) {
+        /**
+         * @param moduleId the module to get the angle of
+         * @return the angle of the module in radians
+         */
+        public double moduleAngleRads(int moduleId) {
+            return moduleAngles[moduleId];
+        }
+
+        /**
+         * Writes the module states into existing states, only the angles are allocated
+         *
+         * @param out the states to write to, one per module
+         */
+        public void toModuleStates(SwerveModuleState[] out) {
+            for (int i = 0; i < MODULE_COUNT; i++) {
+                out[i].speedMetersPerSecond = moduleSpeeds[i];
+                out[i].angle = Rotation2d.fromRadians(moduleAngles[i]);
+            }
+        }
     }
 
     public static record ModuleLimits(
@@ -46,44 +98,70 @@ public class SwerveSetpointProcessor {
             double maxSteeringVelocity) {
     }
 
-    private final SwerveDriveKinematics kinematics = kSwerve.KINEMATICS;
-    private final Translation2d[] moduleLocations = new Translation2d[] {
-            kSwerve.kMod0.CHASSIS_OFFSET,
-            kSwerve.kMod1.CHASSIS_OFFSET,
-            kSwerve.kMod2.CHASSIS_OFFSET,
-            kSwerve.kMod3.CHASSIS_OFFSET
-    };
-    private final ModuleLimits limits = new ModuleLimits(
-            kSwerve.MAX_DRIVE_VELOCITY,
-            kSwerve.MAX_DRIVE_ACCELERATION * 5.0,
-            kSwerve.MAX_STEERING_VELOCITY);
-    private SwerveSetpoint prevSetpoint = new SwerveSetpoint(
-            ZERO_CHASSIS_SPEED,
-            new SwerveModuleState[] {
-                ZERO_MODULE_STATE,
-                ZERO_MODULE_STATE,
-                ZERO_MODULE_STATE,
-                ZERO_MODULE_STATE
-    });
+    private final double[] moduleX = new double[MODULE_COUNT];
+    private final double[] moduleY = new double[MODULE_COUNT];
+    private final ModuleLimits limits;
+
+    /** The last generated setpoint, the next one is generated into {@link #nextSetpoint} and they swap */
+    private SwerveSetpoint prevSetpoint = new SwerveSetpoint();
+    private SwerveSetpoint nextSetpoint = new SwerveSetpoint();
     private boolean disabled = false;
 
+    /** Scratch space for a single generation */
+    private final double[] prevVx = new double[MODULE_COUNT];
+    private final double[] prevVy = new double[MODULE_COUNT];
+    private final double[] prevHeading = new double[MODULE_COUNT];
+    private final double[] desiredVx = new double[MODULE_COUNT];
+    private final double[] desiredVy = new double[MODULE_COUNT];
+    private final double[] desiredSpeed = new double[MODULE_COUNT];
+    private final double[] desiredAngle = new double[MODULE_COUNT];
+    private final double[] desiredHeading = new double[MODULE_COUNT];
+    private final boolean[] hasOverrideSteering = new boolean[MODULE_COUNT];
+    private final double[] overrideSteering = new double[MODULE_COUNT];
+
+    public SwerveSetpointProcessor() {
+        this(
+            new ModuleLimits(
+                kSwerve.MAX_DRIVE_VELOCITY,
+                kSwerve.MAX_DRIVE_ACCELERATION * 5.0,
+                kSwerve.MAX_STEERING_VELOCITY),
+            kSwerve.MODULE_CHASSIS_OFFSETS
+        );
+    }
+
+    /**
+     * @param limits the limits of the modules
+     * @param moduleLocations the location of every module relative to the center of the robot
+     */
+    public SwerveSetpointProcessor(ModuleLimits limits, Translation2d... moduleLocations) {
+        if (moduleLocations.length != MODULE_COUNT) {
+            throw new IllegalArgumentException(
+                "Expected " + MODULE_COUNT + " module locations, got " + moduleLocations.length
+            );
+        }
+        this.limits = limits;
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            moduleX[i] = moduleLocations[i].getX();
+            moduleY[i] = moduleLocations[i].getY();
+        }
+    }
+
     /**
      * Check if it would be faster to go to the opposite of the goal heading (and
      * reverse drive
      * direction).
      *
-     * @param prevToGoal The rotation from the previous state to the goal state
-     *                   (i.e.
-     *                   prev.inverse().rotateBy(goal)).
+     * @param prevToGoalRads The rotation from the previous state to the goal state
+     *                       in radians, any angle is accepted.
      * @return True if the shortest path to achieve this rotation involves flipping
      *         the drive
      *         direction.
      */
-    private boolean flipHeading(Rotation2d prevToGoal) {
-        return Math.abs(prevToGoal.getRadians()) > Math.PI / 2.0;
+    private static boolean flipHeading(double prevToGoalRads) {
+        return Math.abs(MathUtil.angleModulus(prevToGoalRads)) > Math.PI / 2.0;
     }
 
-    private double unwrapAngle(double ref, double angle) {
+    private static double unwrapAngle(double ref, double angle) {
         double diff = angle - ref;
         if (diff > Math.PI) {
             return angle - 2.0 * Math.PI;
@@ -94,81 +172,83 @@ public class SwerveSetpointProcessor {
         }
     }
 
-    private boolean epsilonEquals(Twist2d twist, Twist2d other) {
-        return epsilonEquals(twist.dx, other.dx)
-                && epsilonEquals(twist.dy, other.dy);
-    }
-
-    private boolean epsilonEquals(double a, double b, double epsilon) {
+    private static boolean epsilonEquals(double a, double b, double epsilon) {
         return (a - epsilon <= b) && (a + epsilon >= b);
     }
 
-    private boolean epsilonEquals(double a, double b) {
+    private static boolean epsilonEquals(double a, double b) {
         return epsilonEquals(a, b, 1e-9);
     }
 
-    private Twist2d toTwist2d(ChassisSpeeds speeds) {
-        return new Twist2d(
-                speeds.vxMetersPerSecond, speeds.vyMetersPerSecond, speeds.omegaRadiansPerSecond);
-    }
-
-    @FunctionalInterface
-    private interface Function2d {
-        double f(double x, double y);
-    }
-
     /**
-     * Find the root of the generic 2D parametric function 'func' using the regula
+     * Find the root of a 2D parametric function using the regula
      * falsi technique.
      * This is a pretty naive way to do root finding, but it's usually faster than
      * simple bisection
      * while being robust in ways that e.g. the Newton-Raphson method isn't.
      *
-     * @param func            The Function2d to take the root of.
+     * <p>
+     * The function is either the unwrapped heading ({@code steering}) or the
+     * magnitude of the point, minus {@code offset}. Every iteration narrows the
+     * bracket and the interpolant is accumulated as {@code base + scale * s}
+     * instead of recursing.
+     *
+     * @param steering        True to find the root of the heading, false for the magnitude.
+     * @param ref             The angle headings are unwrapped around.
+     * @param offset          The value subtracted from the function.
      * @param x_0             x value of the lower bracket.
      * @param y_0             y value of the lower bracket.
-     * @param f_0             value of 'func' at x_0, y_0 (passed in by caller to
-     *                        save a call to 'func' during
-     *                        recursion)
+     * @param f_0             value of the function at x_0, y_0.
      * @param x_1             x value of the upper bracket.
      * @param y_1             y value of the upper bracket.
-     * @param f_1             value of 'func' at x_1, y_1 (passed in by caller to
-     *                        save a call to 'func' during
-     *                        recursion)
-     * @param iterations_left Number of iterations of root finding left.
+     * @param f_1             value of the function at x_1, y_1.
+     * @param max_iterations  Number of iterations of root finding.
      * @return The parameter value 's' that interpolating between 0 and 1 that
      *         corresponds to the
      *         (approximate) root.
      */
-    private double findRoot(
-            Function2d func,
+    private static double findRoot(
+            boolean steering,
+            double ref,
+            double offset,
             double x_0,
             double y_0,
             double f_0,
             double x_1,
             double y_1,
             double f_1,
-            int iterations_left) {
-        if (iterations_left < 0 || epsilonEquals(f_0, f_1)) {
-            return 1.0;
-        }
-        var s_guess = Math.max(0.0, Math.min(1.0, -f_0 / (f_1 - f_0)));
-        var x_guess = (x_1 - x_0) * s_guess + x_0;
-        var y_guess = (y_1 - y_0) * s_guess + y_0;
-        var f_guess = func.f(x_guess, y_guess);
-        if (Math.signum(f_0) == Math.signum(f_guess)) {
-            // 0 and guess on same side of root, so use upper bracket.
-            return s_guess
-                    + (1.0 - s_guess)
-                            * findRoot(func, x_guess, y_guess, f_guess, x_1, y_1, f_1, iterations_left - 1);
-        } else {
-            // Use lower bracket.
-            return s_guess
-                    * findRoot(func, x_0, y_0, f_0, x_guess, y_guess, f_guess, iterations_left - 1);
+            int max_iterations) {
+        double base = 0.0;
+        double scale = 1.0;
+        for (int iterations_left = max_iterations; iterations_left >= 0; iterations_left--) {
+            if (epsilonEquals(f_0, f_1)) {
+                break;
+            }
+            final double s_guess = Math.max(0.0, Math.min(1.0, -f_0 / (f_1 - f_0)));
+            final double x_guess = (x_1 - x_0) * s_guess + x_0;
+            final double y_guess = (y_1 - y_0) * s_guess + y_0;
+            final double f_guess = steering
+                    ? unwrapAngle(ref, Math.atan2(y_guess, x_guess)) - offset
+                    : Math.hypot(x_guess, y_guess) - offset;
+            if (Math.signum(f_0) == Math.signum(f_guess)) {
+                // 0 and guess on same side of root, so use upper bracket.
+                base += scale * s_guess;
+                scale *= 1.0 - s_guess;
+                x_0 = x_guess;
+                y_0 = y_guess;
+                f_0 = f_guess;
+            } else {
+                // Use lower bracket.
+                scale *= s_guess;
+                x_1 = x_guess;
+                y_1 = y_guess;
+                f_1 = f_guess;
+            }
         }
+        return base + scale;
     }
 
-    private double findSteeringMaxS(
+    private static double findSteeringMaxS(
             double x_0,
             double y_0,
             double f_0,
@@ -184,13 +264,10 @@ public class SwerveSetpointProcessor {
             return 1.0;
         }
         double offset = f_0 + Math.signum(diff) * max_deviation;
-        Function2d func = (x, y) -> {
-            return unwrapAngle(f_0, Math.atan2(y, x)) - offset;
-        };
-        return findRoot(func, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
+        return findRoot(true, f_0, offset, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
     }
 
-    private double findDriveMaxS(
+    private static double findDriveMaxS(
             double x_0,
             double y_0,
             double f_0,
@@ -205,16 +282,13 @@ public class SwerveSetpointProcessor {
             return 1.0;
         }
         double offset = f_0 + Math.signum(diff) * max_vel_step;
-        Function2d func = (x, y) -> {
-            return Math.hypot(x, y) - offset;
-        };
-        return findRoot(func, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
+        return findRoot(false, 0.0, offset, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
     }
 
     /**
      * Set the disabled flag, which will cause the next call to
      * processSetpoint() to skip the optimizations and constraint considerations.
-     * 
+     *
      * @param disabled True to disable the optimizations and constraints.
      *                 Default is false.
      */
@@ -223,96 +297,174 @@ public class SwerveSetpointProcessor {
     }
 
     /**
-     * Generates a new setpoint.
+     * Forgets the previous setpoint, the next setpoint is generated as if the robot was stopped
+     */
+    public void reset() {
+        prevSetpoint.vx = 0.0;
+        prevSetpoint.vy = 0.0;
+        prevSetpoint.omega = 0.0;
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            prevSetpoint.moduleSpeeds[i] = 0.0;
+            prevSetpoint.moduleAngles[i] = 0.0;
+        }
+    }
+
+    /**
+     * Generates a new setpoint one main loop period after the previous one.
      *
      * @param desiredState The desired state of motion, such as from the driver
      *                     sticks or a path
      *                     following algorithm.
      * @return A Setpoint object that satisfies all of the KinematicLimits while
-     *         converging to desiredState quickly.
+     *         converging to desiredState quickly, valid until the next call.
      */
     public SwerveSetpoint processSetpoint(ChassisSpeeds desiredState) {
-        if (disabled) {
-            return new SwerveSetpoint(
-                    desiredState,
-                    kinematics.toSwerveModuleStates(desiredState));
-        }
         try {
             Tracer.startTrace("GenerateSetpoint");
-            return generateSetpointInner(desiredState, ConstValues.PERIODIC_TIME);
+            return processSetpoint(
+                desiredState.vxMetersPerSecond,
+                desiredState.vyMetersPerSecond,
+                desiredState.omegaRadiansPerSecond,
+                ConstValues.PERIODIC_TIME
+            );
         } finally {
             Tracer.endTrace();
         }
     }
 
-    private SwerveSetpoint generateSetpointInner(
-            ChassisSpeeds desiredState,
-            double dt
-    ) {
-        final int moduleCount = moduleLocations.length;
+    /**
+     * Generates a new setpoint.
+     *
+     * @param vx The desired chassis x velocity in meters per second.
+     * @param vy The desired chassis y velocity in meters per second.
+     * @param omega The desired chassis angular velocity in radians per second.
+     * @param dt The time since the previous setpoint in seconds.
+     * @return A Setpoint object that satisfies all of the KinematicLimits while
+     *         converging to the desired state quickly, valid until the next call.
+     */
+    public SwerveSetpoint processSetpoint(double vx, double vy, double omega, double dt) {
+        final SwerveSetpoint out = nextSetpoint;
+        if (disabled) {
+            out.vx = vx;
+            out.vy = vy;
+            out.omega = omega;
+            for (int i = 0; i < MODULE_COUNT; i++) {
+                final double mvx = vx - omega * moduleY[i];
+                final double mvy = vy + omega * moduleX[i];
+                out.moduleSpeeds[i] = Math.hypot(mvx, mvy);
+                out.moduleAngles[i] = moduleAngle(i, mvx, mvy);
+            }
+        } else {
+            generateSetpointInner(vx, vy, omega, dt, out);
+        }
+        nextSetpoint = prevSetpoint;
+        prevSetpoint = out;
+        return out;
+    }
 
-        SwerveModuleState[] desiredModuleState = kinematics.toSwerveModuleStates(desiredState);
+    /**
+     * @return the angle of a module moving at this velocity,
+     *     a stopped module keeps the angle of the previous setpoint
+     */
+    private double moduleAngle(int moduleId, double mvx, double mvy) {
+        if (mvx == 0.0 && mvy == 0.0) {
+            return prevSetpoint.moduleAngles[moduleId];
+        }
+        return Math.atan2(mvy, mvx);
+    }
 
-        // Make sure desiredState respects velocity limits.
-        if (limits.maxDriveVelocity() > 0.0) {
-            SwerveDriveKinematics.desaturateWheelSpeeds(desiredModuleState, limits.maxDriveVelocity());
-            desiredState = kinematics.toChassisSpeeds(desiredModuleState);
+    /**
+     * Solves the inverse kinematics of the desired state into the scratch arrays
+     */
+    private void desiredModuleStates(double vx, double vy, double omega) {
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            desiredVx[i] = vx - omega * moduleY[i];
+            desiredVy[i] = vy + omega * moduleX[i];
+            desiredSpeed[i] = Math.hypot(desiredVx[i], desiredVy[i]);
+            desiredAngle[i] = moduleAngle(i, desiredVx[i], desiredVy[i]);
         }
+    }
+
+    private void generateSetpointInner(
+            double desiredVxChassis,
+            double desiredVyChassis,
+            double desiredOmegaChassis,
+            double dt,
+            SwerveSetpoint out
+    ) {
+        final SwerveSetpoint prev = prevSetpoint;
 
-        // Special case: desiredState is a complete stop. In this case, module angle is
-        // arbitrary, so just use the previous angle.
         boolean need_to_steer = true;
-        if (epsilonEquals(toTwist2d(desiredState), GeomUtil.TWIST2D_ZERO)) {
-            need_to_steer = false;
-            for (int i = 0; i < moduleCount; ++i) {
-                desiredModuleState[i].angle = prevSetpoint.moduleStates()[i].angle;
-                desiredModuleState[i].speedMetersPerSecond = 0.0;
+        // at most two passes, the second is a complete stop which can't trigger another
+        while (true) {
+            desiredModuleStates(desiredVxChassis, desiredVyChassis, desiredOmegaChassis);
+
+            // Make sure desiredState respects velocity limits.
+            if (limits.maxDriveVelocity() > 0.0) {
+                double maxSpeed = 0.0;
+                for (int i = 0; i < MODULE_COUNT; ++i) {
+                    maxSpeed = Math.max(maxSpeed, desiredSpeed[i]);
+                }
+                if (maxSpeed > limits.maxDriveVelocity()) {
+                    // every module scales by the same factor so the chassis speeds do too
+                    final double scale = limits.maxDriveVelocity() / maxSpeed;
+                    desiredVxChassis *= scale;
+                    desiredVyChassis *= scale;
+                    desiredOmegaChassis *= scale;
+                    for (int i = 0; i < MODULE_COUNT; ++i) {
+                        desiredVx[i] *= scale;
+                        desiredVy[i] *= scale;
+                        desiredSpeed[i] *= scale;
+                    }
+                }
             }
-        }
 
-        // For each module, compute local Vx and Vy vectors.
-        double[] prev_vx = new double[moduleCount];
-        double[] prev_vy = new double[moduleCount];
-        Rotation2d[] prev_heading = new Rotation2d[moduleCount];
-        double[] desired_vx = new double[moduleCount];
-        double[] desired_vy = new double[moduleCount];
-        Rotation2d[] desired_heading = new Rotation2d[moduleCount];
-        boolean all_modules_should_flip = true;
-
-        for (int i = 0; i < moduleCount; ++i) {
-            prev_vx[i] = prevSetpoint.moduleStates()[i].angle.getCos()
-                    * prevSetpoint.moduleStates()[i].speedMetersPerSecond;
-            prev_vy[i] = prevSetpoint.moduleStates()[i].angle.getSin()
-                    * prevSetpoint.moduleStates()[i].speedMetersPerSecond;
-            prev_heading[i] = prevSetpoint.moduleStates()[i].angle;
-            if (prevSetpoint.moduleStates()[i].speedMetersPerSecond < 0.0) {
-                prev_heading[i] = prev_heading[i].rotateBy(GeomUtil.ROTATION2D_PI);
-            }
-            desired_vx[i] = desiredModuleState[i].angle.getCos() * desiredModuleState[i].speedMetersPerSecond;
-            desired_vy[i] = desiredModuleState[i].angle.getSin() * desiredModuleState[i].speedMetersPerSecond;
-            desired_heading[i] = desiredModuleState[i].angle;
-            if (desiredModuleState[i].speedMetersPerSecond < 0.0) {
-                desired_heading[i] = desired_heading[i].rotateBy(GeomUtil.ROTATION2D_PI);
+            // Special case: desiredState is a complete stop. In this case, module angle is
+            // arbitrary, so just use the previous angle.
+            need_to_steer = true;
+            if (epsilonEquals(desiredVxChassis, 0.0)
+                    && epsilonEquals(desiredVyChassis, 0.0)
+                    && epsilonEquals(desiredOmegaChassis, 0.0)) {
+                need_to_steer = false;
+                for (int i = 0; i < MODULE_COUNT; ++i) {
+                    desiredAngle[i] = prev.moduleAngles[i];
+                    desiredSpeed[i] = 0.0;
+                    desiredVx[i] = 0.0;
+                    desiredVy[i] = 0.0;
+                }
             }
-            if (all_modules_should_flip) {
-                double required_rotation_rad = Math
-                        .abs(prev_heading[i].unaryMinus().rotateBy(desired_heading[i]).getRadians());
-                if (required_rotation_rad < Math.PI / 2.0) {
+
+            // For each module, compute local Vx and Vy vectors.
+            boolean all_modules_should_flip = true;
+            for (int i = 0; i < MODULE_COUNT; ++i) {
+                prevVx[i] = Math.cos(prev.moduleAngles[i]) * prev.moduleSpeeds[i];
+                prevVy[i] = Math.sin(prev.moduleAngles[i]) * prev.moduleSpeeds[i];
+                prevHeading[i] = prev.moduleSpeeds[i] < 0.0
+                        ? MathUtil.angleModulus(prev.moduleAngles[i] + Math.PI)
+                        : prev.moduleAngles[i];
+                // desired speeds are never negative so the heading is the angle
+                desiredHeading[i] = desiredAngle[i];
+                if (all_modules_should_flip
+                        && !flipHeading(desiredHeading[i] - prevHeading[i])) {
                     all_modules_should_flip = false;
                 }
             }
-        }
 
-        if (all_modules_should_flip
-                && !epsilonEquals(prevSetpoint.chassisSpeeds().vxMetersPerSecond, 0.0)
-                && !epsilonEquals(prevSetpoint.chassisSpeeds().vyMetersPerSecond, 0.0)
-                && !epsilonEquals(desiredState.vxMetersPerSecond, 0.0)
-                && !epsilonEquals(desiredState.vyMetersPerSecond, 0.0)) {
-            // It will (likely) be faster to stop the robot, rotate the modules in place to
-            // the complement
-            // of the desired
-            // angle, and accelerate again.
-            return generateSetpointInner(ZERO_CHASSIS_SPEED, dt);
+            if (all_modules_should_flip
+                    && !epsilonEquals(prev.vx, 0.0)
+                    && !epsilonEquals(prev.vy, 0.0)
+                    && !epsilonEquals(desiredVxChassis, 0.0)
+                    && !epsilonEquals(desiredVyChassis, 0.0)) {
+                // It will (likely) be faster to stop the robot, rotate the modules in place to
+                // the complement
+                // of the desired
+                // angle, and accelerate again.
+                desiredVxChassis = 0.0;
+                desiredVyChassis = 0.0;
+                desiredOmegaChassis = 0.0;
+                continue;
+            }
+            break;
         }
 
         // Compute the deltas between start and goal. We can then interpolate from the
@@ -321,22 +473,15 @@ public class SwerveSetpointProcessor {
         // find the amount we can move from start towards goal in this cycle such that
         // no kinematic
         // limit is exceeded.
-        double dx = desiredState.vxMetersPerSecond - prevSetpoint.chassisSpeeds().vxMetersPerSecond;
-        double dy = desiredState.vyMetersPerSecond - prevSetpoint.chassisSpeeds().vyMetersPerSecond;
-        double dtheta = desiredState.omegaRadiansPerSecond - prevSetpoint.chassisSpeeds().omegaRadiansPerSecond;
+        final double dx = desiredVxChassis - prev.vx;
+        final double dy = desiredVyChassis - prev.vy;
+        final double dtheta = desiredOmegaChassis - prev.omega;
 
         // 's' interpolates between start and goal. At 0, we are at prevState and at 1,
         // we are at
         // desiredState.
         double min_s = 1.0;
 
-        // In cases where an individual module is stopped, we want to remember the right
-        // steering angle
-        // to command (since
-        // inverse kinematics doesn't care about angle, we can be opportunistically
-        // lazy).
-        List<Optional<Rotation2d>> overrideSteering = new ArrayList<>(moduleCount);
-
         // Enforce steering velocity limits. We do this by taking the derivative of
         // steering angle at
         // the current angle,
@@ -344,55 +489,55 @@ public class SwerveSetpointProcessor {
         // We remember the
         // minimum across all modules, since
         // that is the active constraint.
+        // In cases where an individual module is stopped, we want to remember the right
+        // steering angle
+        // to command (since
+        // inverse kinematics doesn't care about angle, we can be opportunistically
+        // lazy).
         final double max_theta_step = dt * limits.maxSteeringVelocity();
 
-        for (int i = 0; i < moduleCount; ++i) {
+        for (int i = 0; i < MODULE_COUNT; ++i) {
+            hasOverrideSteering[i] = false;
             if (!need_to_steer) {
-                overrideSteering.add(Optional.of(prevSetpoint.moduleStates()[i].angle));
+                hasOverrideSteering[i] = true;
+                overrideSteering[i] = prev.moduleAngles[i];
                 continue;
-            } else {
-                overrideSteering.add(Optional.empty());
             }
 
             // if the module last targeted a speed of 0
-            if (epsilonEquals(prevSetpoint.moduleStates()[i].speedMetersPerSecond, 0.0)) {
+            if (epsilonEquals(prev.moduleSpeeds[i], 0.0)) {
 
                 // If module is stopped, we know that we will need to move straight to the final
                 // steering
                 // angle, so limit based
                 // purely on rotation in place.
-                if (epsilonEquals(desiredModuleState[i].speedMetersPerSecond, 0.0)) {
+                if (epsilonEquals(desiredSpeed[i], 0.0)) {
                     // Goal angle doesn't matter. Just leave module at its current angle.
-                    overrideSteering.set(i, Optional.of(prevSetpoint.moduleStates()[i].angle));
+                    hasOverrideSteering[i] = true;
+                    overrideSteering[i] = prev.moduleAngles[i];
                     continue;
                 }
 
-                Rotation2d necessaryRotation = prevSetpoint.moduleStates()[i].angle
-                        .unaryMinus().rotateBy(desiredModuleState[i].angle);
+                double necessaryRotation = MathUtil.angleModulus(desiredAngle[i] - prev.moduleAngles[i]);
 
                 if (flipHeading(necessaryRotation)) {
-                    necessaryRotation = necessaryRotation.rotateBy(Rotation2d.fromRadians(Math.PI));
+                    necessaryRotation = MathUtil.angleModulus(necessaryRotation + Math.PI);
                 }
 
-                // getRadians() bounds to +/- Pi.
-                final double numStepsNeeded = Math.abs(necessaryRotation.getRadians()) / max_theta_step;
+                final double numStepsNeeded = Math.abs(necessaryRotation) / max_theta_step;
 
+                hasOverrideSteering[i] = true;
                 if (numStepsNeeded <= 1.0) {
                     // Steer directly to goal angle.
-                    overrideSteering.set(i, Optional.of(desiredModuleState[i].angle));
+                    overrideSteering[i] = desiredAngle[i];
                     // Don't limit the global min_s;
-                    continue;
                 } else {
                     // Adjust steering by max_theta_step.
-                    overrideSteering.set(
-                            i,
-                            Optional.of(
-                                    prevSetpoint.moduleStates()[i].angle.rotateBy(
-                                            Rotation2d.fromRadians(
-                                                    Math.signum(necessaryRotation.getRadians()) * max_theta_step))));
+                    overrideSteering[i] = MathUtil.angleModulus(
+                            prev.moduleAngles[i] + Math.signum(necessaryRotation) * max_theta_step);
                     min_s = 0.0;
-                    continue;
                 }
+                continue;
             }
 
             if (min_s == 0.0) {
@@ -400,66 +545,64 @@ public class SwerveSetpointProcessor {
                 continue;
             }
 
-            final int kMaxIterations = 8;
             double s = findSteeringMaxS(
-                    prev_vx[i],
-                    prev_vy[i],
-                    prev_heading[i].getRadians(),
-                    desired_vx[i],
-                    desired_vy[i],
-                    desired_heading[i].getRadians(),
+                    prevVx[i],
+                    prevVy[i],
+                    prevHeading[i],
+                    desiredVx[i],
+                    desiredVy[i],
+                    desiredHeading[i],
                     max_theta_step,
-                    kMaxIterations);
+                    STEERING_MAX_ITERATIONS);
             min_s = Math.min(min_s, s);
         }
 
         // Enforce drive wheel acceleration limits.
         final double max_vel_step = dt * limits.maxDriveAcceleration();
-        for (int i = 0; i < moduleCount; ++i) {
+        for (int i = 0; i < MODULE_COUNT; ++i) {
             if (min_s == 0.0) {
                 // No need to carry on.
                 break;
             }
-            double vx_min_s = min_s == 1.0 ? desired_vx[i] : (desired_vx[i] - prev_vx[i]) * min_s + prev_vx[i];
-            double vy_min_s = min_s == 1.0 ? desired_vy[i] : (desired_vy[i] - prev_vy[i]) * min_s + prev_vy[i];
+            double vx_min_s = min_s == 1.0 ? desiredVx[i] : (desiredVx[i] - prevVx[i]) * min_s + prevVx[i];
+            double vy_min_s = min_s == 1.0 ? desiredVy[i] : (desiredVy[i] - prevVy[i]) * min_s + prevVy[i];
             // Find the max s for this drive wheel. Search on the interval between 0 and
             // min_s, because we
             // already know we can't go faster
             // than that.
-            final int kMaxIterations = 10;
             double s = min_s
                     * findDriveMaxS(
-                            prev_vx[i],
-                            prev_vy[i],
-                            Math.hypot(prev_vx[i], prev_vy[i]),
+                            prevVx[i],
+                            prevVy[i],
+                            Math.hypot(prevVx[i], prevVy[i]),
                             vx_min_s,
                             vy_min_s,
                             Math.hypot(vx_min_s, vy_min_s),
                             max_vel_step,
-                            kMaxIterations);
+                            DRIVE_MAX_ITERATIONS);
             min_s = Math.min(min_s, s);
         }
 
-        ChassisSpeeds retSpeeds = new ChassisSpeeds(
-                prevSetpoint.chassisSpeeds().vxMetersPerSecond + min_s * dx,
-                prevSetpoint.chassisSpeeds().vyMetersPerSecond + min_s * dy,
-                prevSetpoint.chassisSpeeds().omegaRadiansPerSecond + min_s * dtheta);
-        var retStates = kinematics.toSwerveModuleStates(retSpeeds);
-        for (int i = 0; i < moduleCount; ++i) {
-            final var maybeOverride = overrideSteering.get(i);
-            if (maybeOverride.isPresent()) {
-                var override = maybeOverride.get();
-                if (flipHeading(retStates[i].angle.unaryMinus().rotateBy(override))) {
-                    retStates[i].speedMetersPerSecond *= -1.0;
+        out.vx = prev.vx + min_s * dx;
+        out.vy = prev.vy + min_s * dy;
+        out.omega = prev.omega + min_s * dtheta;
+        for (int i = 0; i < MODULE_COUNT; ++i) {
+            final double mvx = out.vx - out.omega * moduleY[i];
+            final double mvy = out.vy + out.omega * moduleX[i];
+            double speed = Math.hypot(mvx, mvy);
+            double angle = moduleAngle(i, mvx, mvy);
+            if (hasOverrideSteering[i]) {
+                if (flipHeading(overrideSteering[i] - angle)) {
+                    speed *= -1.0;
                 }
-                retStates[i].angle = override;
+                angle = overrideSteering[i];
             }
-            final var deltaRotation = prevSetpoint.moduleStates()[i].angle.unaryMinus().rotateBy(retStates[i].angle);
-            if (flipHeading(deltaRotation)) {
-                retStates[i].angle = retStates[i].angle.rotateBy(GeomUtil.ROTATION2D_PI);
-                retStates[i].speedMetersPerSecond *= -1.0;
+            if (flipHeading(angle - prev.moduleAngles[i])) {
+                angle = MathUtil.angleModulus(angle + Math.PI);
+                speed *= -1.0;
             }
+            out.moduleSpeeds[i] = speed;
+            out.moduleAngles[i] = angle;
         }
-        return new SwerveSetpoint(retSpeeds, retStates);
     }
-}
\ No newline at end of file
+}
@@ -4,19 +4,19 @@ import com.igknighters.constants.ConstValues;
 import com.igknighters.subsystems.swerve.odometryThread.SimSwerveOdometryThread;
 import com.igknighters.util.logging.BootupLogger;
 
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.ChassisSpeeds;
-
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public class GyroSim extends Gyro {
 
-    private final Supplier<ChassisSpeeds> chassisSpeedSupplier;
+    private final DoubleSupplier omegaSupplier;
 
-    public GyroSim(Supplier<ChassisSpeeds> chassisSpeedSupplier, SimSwerveOdometryThread odoThread) {
-        this.chassisSpeedSupplier = chassisSpeedSupplier;
+    /**
+     * @param omegaSupplier supplies the angular velocity of the chassis in radians per second
+     */
+    public GyroSim(DoubleSupplier omegaSupplier, SimSwerveOdometryThread odoThread) {
+        this.omegaSupplier = omegaSupplier;
 
-        odoThread.addRotationSupplier(() -> Rotation2d.fromRadians(this.getYawRads()));
+        odoThread.addYawSupplier(this::getYawRads);
 
         BootupLogger.bootupLog("    Gyro initialized (sim)");
     }
@@ -44,7 +44,7 @@ public class GyroSim extends Gyro {
     @Override
     public void periodic() {
         var oldYaw = super.yawRads;
-        super.yawRads += chassisSpeedSupplier.get().omegaRadiansPerSecond * ConstValues.PERIODIC_TIME;
+        super.yawRads += omegaSupplier.getAsDouble() * ConstValues.PERIODIC_TIME;
         super.yawVelRadsPerSec = (super.yawRads - oldYaw) / ConstValues.PERIODIC_TIME;
     }
 }
@@ -8,25 +8,29 @@ import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import monologue.Annotations.Log;
 
+/**
+ * {@link #setDesiredState} may run on the odometry thread while these are logged from the main loop,
+ * so the fields it writes are volatile.
+ */
 public abstract class SwerveModule extends Component {
     @Log
     public double driveVeloMPS = 0.0;
     @Log
-    public double targetDriveVeloMPS = 0.0;
+    public volatile double targetDriveVeloMPS = 0.0;
     @Log
     public double drivePositionMeters = 0.0;
     @Log
-    public double driveVolts = 0.0;
+    public volatile double driveVolts = 0.0;
     @Log
     public double driveAmps = 0.0;
     @Log
     public double angleVeloRadPS = 0.0;
     @Log
-    public double angleAbsoluteRads = 0.0;
+    public volatile double angleAbsoluteRads = 0.0;
     @Log
-    public double targetAngleAbsoluteRads = 0.0;
+    public volatile double targetAngleAbsoluteRads = 0.0;
     @Log
-    public double angleVolts = 0.0;
+    public volatile double angleVolts = 0.0;
     @Log
     public double angleAmps = 0.0;
 
@@ -49,6 +49,8 @@ public class SwerveModuleReal extends SwerveModule {
     private final RealSwerveOdometryThread odoThread;
 
     private Rotation2d lastAngle = new Rotation2d();
+    /** The last closed loop drive target, published from {@link #periodic()} since this may be set off the main thread */
+    private volatile double targetDriveRPS = 0.0;
 
     public SwerveModuleReal(final SwerveModuleConstants moduleConstants, boolean isPro, final RealSwerveOdometryThread odoThread) {
         this.odoThread = odoThread;
@@ -184,7 +186,7 @@ public class SwerveModuleReal extends SwerveModule {
             driveMotor.setControl(((VoltageOut) driveMotorOpenReq).withOutput(percentOutput * RobotController.getBatteryVoltage()));
         } else {
             double rps = (desiredState.speedMetersPerSecond / kSwerve.WHEEL_CIRCUMFERENCE) * kSwerve.DRIVE_GEAR_RATIO;
-            log("DriveRPS", rps);
+            targetDriveRPS = rps;
             driveMotor.setControl(((VelocityVoltage) driveMotorClosedReq).withVelocity(rps));
         }
     }
@@ -221,6 +223,8 @@ public class SwerveModuleReal extends SwerveModule {
         super.driveVeloMPS = driveRotationsToMeters(odoThread.getModuleVelocity(moduleNumber));
         super.driveVolts = driveVoltSignal.getValueAsDouble();
         super.driveAmps = driveAmpSignal.getValueAsDouble();
+
+        log("DriveRPS", targetDriveRPS);
     }
 
     @Override
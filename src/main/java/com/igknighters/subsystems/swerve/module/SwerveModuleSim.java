@@ -1,5 +1,7 @@
 package com.igknighters.subsystems.swerve.module;
 
+import java.util.Random;
+
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.geometry.Rotation2d;
@@ -48,9 +50,10 @@ public class SwerveModuleSim extends SwerveModule {
 
         angleFeedback.enableContinuousInput(-Math.PI, Math.PI);
 
-        super.angleAbsoluteRads = Units.rotationsToRadians(Math.random());
+        // seeded by module so stepped simulation runs are repeatable
+        super.angleAbsoluteRads = Units.rotationsToRadians(new Random(moduleNumber).nextDouble());
 
-        odoThread.addModulePositionSupplier(moduleNumber, this::getCurrentPosition);
+        odoThread.addModulePositionSupplier(moduleNumber, () -> super.drivePositionMeters, () -> super.angleAbsoluteRads);
 
         BootupLogger.bootupLog("    SwerveModule[" + this.moduleNumber + "] initialized (sim)");
     }
@@ -0,0 +1,82 @@
+package com.igknighters.subsystems.swerve.odometryThread;
+
+/**
+ * Picks the odometry sample rate from how well the last window of samples kept up.
+ *
+ * Every window the achieved sample rate, the amount of missed deadlines and the bus utilization
+ * are compared against the current rate. Any sign of strain steps the rate down immediately,
+ * the rate is only stepped back up after several consecutive healthy windows so it doesn't oscillate.
+ */
+public class OdometryRateController {
+    /** Above this bus utilization the rate is stepped down to leave room for control frames */
+    private static final double HIGH_BUS_UTILIZATION = 0.75;
+    /** Below this bus utilization there is room to step the rate up */
+    private static final double LOW_BUS_UTILIZATION = 0.55;
+    /** The fraction of deadlines that can be missed before the rate is stepped down */
+    private static final double MAX_MISSED_RATIO = 0.02;
+    /** The fraction of the target rate that has to be achieved for a window to be healthy */
+    private static final double MIN_ACHIEVED_RATIO = 0.95;
+    /** The amount of consecutive healthy windows before the rate is stepped up */
+    private static final int WINDOWS_BEFORE_STEP_UP = 5;
+
+    private final int minHz;
+    private final int maxHz;
+    private final int stepHz;
+
+    private int hz;
+    private int healthyWindows = 0;
+
+    /**
+     * Creates a new rate controller
+     *
+     * @param minHz the lowest rate to step down to
+     * @param maxHz the highest rate to step up to
+     * @param stepHz how much the rate changes per step
+     * @param initialHz the rate to start at
+     */
+    public OdometryRateController(int minHz, int maxHz, int stepHz, int initialHz) {
+        if (minHz <= 0 || maxHz < minHz || stepHz <= 0) {
+            throw new IllegalArgumentException("Invalid odometry rate bounds");
+        }
+        this.minHz = minHz;
+        this.maxHz = maxHz;
+        this.stepHz = stepHz;
+        this.hz = Math.min(Math.max(initialHz, minHz), maxHz);
+    }
+
+    /**
+     * @return the current target rate
+     */
+    public int hz() {
+        return hz;
+    }
+
+    /**
+     * Evaluates a window of samples and steps the rate if needed
+     *
+     * @param windowSeconds the length of the window
+     * @param samples the amount of samples sent in the window
+     * @param missedDeadlines the amount of waits in the window that timed out
+     * @param busUtilization the utilization of the bus between 0.0 and 1.0
+     * @return the rate to run at from now on
+     */
+    public int update(double windowSeconds, int samples, int missedDeadlines, double busUtilization) {
+        final double expected = hz * windowSeconds;
+        final boolean strained = busUtilization > HIGH_BUS_UTILIZATION
+            || missedDeadlines > expected * MAX_MISSED_RATIO
+            || samples < expected * MIN_ACHIEVED_RATIO;
+
+        if (strained) {
+            healthyWindows = 0;
+            hz = Math.max(hz - stepHz, minHz);
+        } else if (busUtilization < LOW_BUS_UTILIZATION && missedDeadlines == 0) {
+            if (++healthyWindows >= WINDOWS_BEFORE_STEP_UP) {
+                healthyWindows = 0;
+                hz = Math.min(hz + stepHz, maxHz);
+            }
+        } else {
+            healthyWindows = 0;
+        }
+        return hz;
+    }
+}
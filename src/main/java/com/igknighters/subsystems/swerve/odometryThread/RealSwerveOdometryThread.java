@@ -1,29 +1,45 @@
 package com.igknighters.subsystems.swerve.odometryThread;
 
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.DoubleFunction;
+import java.util.function.DoubleUnaryOperator;
 
 import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
 import com.igknighters.constants.ConstValues;
-import com.igknighters.util.plumbing.Channel.Sender;
+import com.igknighters.constants.ConstValues.kSwerve;
+import com.igknighters.util.plumbing.PrimitiveChannel.Sender;
 
 import edu.wpi.first.math.filter.LinearFilter;
-import edu.wpi.first.math.filter.MedianFilter;
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.SwerveDriveWheelPositions;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.Threads;
 import edu.wpi.first.wpilibj.Timer;
+import monologue.Annotations.Log;
 
 public class RealSwerveOdometryThread extends SwerveOdometryThread {
     private final Thread thread;
     private final BaseStatusSignal[] signals = new BaseStatusSignal[(MODULE_COUNT * 4) + 4];
-    private final DoubleFunction<Double> driveRotsToMeters;
+    private final DoubleUnaryOperator driveRotsToMeters;
+    private final String canbus;
 
-    protected final MedianFilter peakRemover = new MedianFilter(3);
+    /** How often the rate controller evaluates the samples sent since it last ran */
+    private static final double RATE_WINDOW_SECONDS = 1.0;
+    private static final int RATE_STEP_HZ = 25;
+    private final OdometryRateController rateController;
+    /** Window counters, only touched by the odometry thread */
+    private double windowStart = 0.0;
+    private int windowSamples = 0;
+    private int windowMissed = 0;
+
+    protected final AtomicLong missedDeadlines = new AtomicLong();
+    protected final AtomicLong achievedHzBits = new AtomicLong();
+    protected final AtomicLong busUtilizationBits = new AtomicLong();
+
+    /** The last 3 update times, a primitive median of 3 to remove peaks without boxing */
+    private final long[] peakRemover = new long[3];
+    private int peakRemoverIndex = 0;
     protected final LinearFilter lowPass = LinearFilter.movingAverage(50);
 
     /** An array that holds [module1Pos, module1Velo, module2Pos, ...] */
@@ -31,15 +47,29 @@ public class RealSwerveOdometryThread extends SwerveOdometryThread {
     protected final AtomicLong[] gyroStates = new AtomicLong[2];
 
     protected boolean enableLatencyCompensation = true;
+    /** The timestamp of the last sent sample, only touched by the odometry thread */
+    private double lastSampleTimestamp = 0.0;
 
     private double getAtomicDouble(AtomicLong[] array, int index) {
         return Double.longBitsToDouble(array[index].get());
     }
 
-    public RealSwerveOdometryThread(int hz, DoubleFunction<Double> driveRotsToMeters, Sender<SwerveDriveSample> swerveDataSender) {
+    public RealSwerveOdometryThread(
+        int hz,
+        String canbus,
+        DoubleUnaryOperator driveRotsToMeters,
+        Sender<SwerveDriveSample> swerveDataSender
+    ) {
         super(hz, swerveDataSender);
         this.thread = new Thread(this::run, "OdometryThread");
+        this.canbus = canbus;
         this.driveRotsToMeters = driveRotsToMeters;
+        this.rateController = new OdometryRateController(
+            kSwerve.MIN_ODOMETRY_HZ,
+            kSwerve.MAX_ODOMETRY_HZ,
+            RATE_STEP_HZ,
+            hz
+        );
         for (int i = 0; i < MODULE_COUNT * 2; i++) {
             moduleStates[i] = new AtomicLong();
         }
@@ -47,15 +77,21 @@ public class RealSwerveOdometryThread extends SwerveOdometryThread {
         gyroStates[1] = new AtomicLong();
     }
 
-    private static double latencyCompensatedValue(BaseStatusSignal signal, BaseStatusSignal signalSlope) {
-        final double maxLatencySeconds = ConstValues.PERIODIC_TIME * 5;
+    private static final double MAX_LATENCY_SECONDS = ConstValues.PERIODIC_TIME * 5;
+
+    private static double clampedLatency(BaseStatusSignal signal) {
+        return Math.min(Math.max(signal.getTimestamp().getLatency(), 0.0), MAX_LATENCY_SECONDS);
+    }
+
+    /**
+     * Extrapolates a signal from when its frame was measured to the time of the sample
+     *
+     * @param sampleLatency how long ago the sample is timestamped at
+     */
+    private static double latencyCompensatedValue(BaseStatusSignal signal, BaseStatusSignal signalSlope, double sampleLatency) {
         final double nonCompensatedSignal = signal.getValueAsDouble();
         final double changeInSignal = signalSlope.getValueAsDouble();
-        double latency = signal.getTimestamp().getLatency();
-        if (maxLatencySeconds > 0.0 && latency > maxLatencySeconds) {
-            latency = maxLatencySeconds;
-        }
-        return nonCompensatedSignal + (changeInSignal * latency);
+        return nonCompensatedSignal + (changeInSignal * (clampedLatency(signal) - sampleLatency));
     }
 
     public void addModuleStatusSignals(
@@ -98,43 +134,52 @@ public class RealSwerveOdometryThread extends SwerveOdometryThread {
         signals[(MODULE_COUNT * 4) + 3] = yAccel;
     }
 
-    private SwerveModulePosition[] getModulePositions() {
-        SwerveModulePosition[] positions = new SwerveModulePosition[MODULE_COUNT];
+    private void fillModulePositions(double sampleLatency) {
         for (int i = 0; i < MODULE_COUNT; i++) {
             int offset = 4 * i;
-            positions[i] = new SwerveModulePosition(
-                driveRotsToMeters.apply(
+            sample.setModule(
+                i,
+                driveRotsToMeters.applyAsDouble(
                     enableLatencyCompensation
                     ? latencyCompensatedValue(
                         signals[offset + 0],
-                        signals[offset + 1]
+                        signals[offset + 1],
+                        sampleLatency
                     )
                     : signals[offset + 0].getValueAsDouble()
                 ),
-                Rotation2d.fromRotations(
+                Units.rotationsToRadians(
                     enableLatencyCompensation
                     ? latencyCompensatedValue(
                         signals[offset + 2],
-                        signals[offset + 3]
+                        signals[offset + 3],
+                        sampleLatency
                     )
                     : signals[offset + 2].getValueAsDouble()
                 )
             );
         }
-        return positions;
     }
 
-    private Rotation2d getGyroRotation() {
-        return Rotation2d.fromDegrees(
+    private double getGyroYawRads(double sampleLatency) {
+        return Units.degreesToRadians(
             enableLatencyCompensation
             ? latencyCompensatedValue(
                 signals[MODULE_COUNT * 4],
-                signals[(MODULE_COUNT * 4) + 1]
+                signals[(MODULE_COUNT * 4) + 1],
+                sampleLatency
             )
             : signals[MODULE_COUNT * 4].getValueAsDouble()
         );
     }
 
+    private long removePeaks(long elapsedTime) {
+        peakRemover[peakRemoverIndex] = elapsedTime;
+        peakRemoverIndex = (peakRemoverIndex + 1) % peakRemover.length;
+        long a = peakRemover[0], b = peakRemover[1], c = peakRemover[2];
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
     private double getGForce() {
         return Math.hypot(
             signals[(MODULE_COUNT * 4) + 2].getValueAsDouble(),
@@ -142,19 +187,47 @@ public class RealSwerveOdometryThread extends SwerveOdometryThread {
         );
     }
 
+    /**
+     * Feeds the last window of samples to the rate controller and
+     * pushes the new rate to every signal if it changed
+     */
+    private void evaluateRate(double now) {
+        final double window = now - windowStart;
+        final var busStatus = CANBus.getStatus(canbus);
+        final double busUtilization = busStatus.Status.isOK() ? busStatus.BusUtilization : 0.0;
+        busUtilizationBits.set(Double.doubleToLongBits(busUtilization));
+        achievedHzBits.set(Double.doubleToLongBits(windowSamples / window));
+
+        final int newHz = rateController.update(window, windowSamples, windowMissed, busUtilization);
+        if (newHz != hz) {
+            BaseStatusSignal.setUpdateFrequencyForAll(newHz, signals);
+            hz = newHz;
+        }
+
+        windowStart = now;
+        windowSamples = 0;
+        windowMissed = 0;
+    }
+
     private void run() {
         isRunning.set(true);
         try {
             Threads.setCurrentThreadPriority(true, 1);
+            windowStart = Timer.getFPGATimestamp();
 
             while (this.isRunning.get()) {
+                final double windowNow = Timer.getFPGATimestamp();
+                if (windowNow - windowStart >= RATE_WINDOW_SECONDS) {
+                    evaluateRate(windowNow);
+                }
+
                 long startTime = RobotController.getFPGATime();
-                BaseStatusSignal.waitForAll(2.0 / hz, signals);
+                final StatusCode status = BaseStatusSignal.waitForAll(2.0 / hz, signals);
                 long elapsedTime = RobotController.getFPGATime() - startTime;
 
                 updateTimeMicros.set(
                     (long) lowPass.calculate(
-                        peakRemover.calculate(
+                        removePeaks(
                             elapsedTime
                         )
                     )
@@ -171,20 +244,57 @@ public class RealSwerveOdometryThread extends SwerveOdometryThread {
                 gyroStates[0].set(Double.doubleToLongBits(Units.degreesToRadians(signals[signals.length - 4].getValueAsDouble())));
                 gyroStates[1].set(Double.doubleToLongBits(Units.degreesToRadians(signals[signals.length - 3].getValueAsDouble())));
 
-                swerveDataSender.send(
-                    new SwerveDriveSample(
-                        new SwerveDriveWheelPositions(getModulePositions()),
-                        getGyroRotation(),
-                        getGForce(),
-                        Timer.getFPGATimestamp()
-                    )
-                );
+                // timestamp the sample at the average time the synchronized frames were measured
+                // instead of when this thread woke, which includes scheduler jitter
+                final double now = Timer.getFPGATimestamp();
+                double latencySum = 0.0;
+                double minLatency = MAX_LATENCY_SECONDS;
+                for (int i = 0; i < signals.length; i++) {
+                    final double latency = clampedLatency(signals[i]);
+                    latencySum += latency;
+                    minLatency = Math.min(minLatency, latency);
+                }
+                final double sampleLatency = latencySum / signals.length;
+                final double sampleTimestamp = now - sampleLatency;
+                if (!status.isOK()) {
+                    windowMissed++;
+                    missedDeadlines.incrementAndGet();
+                }
+                if (minLatency >= MAX_LATENCY_SECONDS || sampleTimestamp <= lastSampleTimestamp) {
+                    // the wait timed out without any new frames, there is nothing new to send
+                    continue;
+                }
+                lastSampleTimestamp = sampleTimestamp;
+                recordWakeJitter((long) (minLatency * 1_000_000.0));
+
+                fillModulePositions(sampleLatency);
+                sample.setGyroYawRads(getGyroYawRads(sampleLatency));
+                sample.setGforce(getGForce());
+                sample.setTimestamp(sampleTimestamp);
+                swerveDataSender.send(sample);
+                windowSamples++;
+                runSampleCallback();
             }
         } finally {
             isRunning.set(false);
         }
     }
 
+    @Log
+    private long missedDeadlines() {
+        return missedDeadlines.get();
+    }
+
+    @Log
+    private double achievedHz() {
+        return Double.longBitsToDouble(achievedHzBits.get());
+    }
+
+    @Log
+    private double busUtilization() {
+        return Double.longBitsToDouble(busUtilizationBits.get());
+    }
+
     @Override
     public void start() {
         thread.start();
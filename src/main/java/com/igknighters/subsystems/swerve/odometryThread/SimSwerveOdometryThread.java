@@ -1,22 +1,25 @@
 package com.igknighters.subsystems.swerve.odometryThread;
 
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
-import com.igknighters.util.plumbing.Channel.Sender;
+import com.igknighters.util.plumbing.PrimitiveChannel.Sender;
 
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.SwerveDriveWheelPositions;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.Timer;
 
+/**
+ * Samples the simulated modules on a HAL {@link Notifier}.
+ *
+ * The notifier follows HAL time, so under a {@link com.igknighters.util.robots.SteppedSimClock}
+ * it ticks in lockstep with the robot loop and module physics instead of the wall clock.
+ */
 public class SimSwerveOdometryThread extends SwerveOdometryThread{
     private final Notifier notifier;
 
-    @SuppressWarnings("unchecked")
-    private final Supplier<SwerveModulePosition>[] positiionSuppliers = new Supplier[MODULE_COUNT];
-    private Supplier<Rotation2d> rotationSupplier = Rotation2d::new;
+    private final DoubleSupplier[] distanceSuppliers = new DoubleSupplier[MODULE_COUNT];
+    private final DoubleSupplier[] angleSuppliers = new DoubleSupplier[MODULE_COUNT];
+    private DoubleSupplier yawSupplier = () -> 0.0;
 
     public SimSwerveOdometryThread(int hz, Sender<SwerveDriveSample> swerveDataSender) {
         super(hz, swerveDataSender);
@@ -24,33 +27,34 @@ public class SimSwerveOdometryThread extends SwerveOdometryThread{
         notifier.setName("SwerveOdometry");
     }
 
-    public void addModulePositionSupplier(int moduleId, Supplier<SwerveModulePosition> sup) {
-        positiionSuppliers[moduleId] = sup;
+    /**
+     * @param moduleId the module the suppliers belong to
+     * @param distanceSupplier supplies the distance the module has driven in meters
+     * @param angleSupplier supplies the angle of the module in radians
+     */
+    public void addModulePositionSupplier(int moduleId, DoubleSupplier distanceSupplier, DoubleSupplier angleSupplier) {
+        distanceSuppliers[moduleId] = distanceSupplier;
+        angleSuppliers[moduleId] = angleSupplier;
     }
 
-    public void addRotationSupplier(Supplier<Rotation2d> sup) {
-        rotationSupplier = sup;
-    }
-
-    private SwerveModulePosition[] getModulePositions() {
-        SwerveModulePosition[] positions = new SwerveModulePosition[MODULE_COUNT];
-        for (int i = 0; i < MODULE_COUNT; i++) {
-            positions[i] = positiionSuppliers[i].get();
-        }
-        return positions;
+    /**
+     * @param sup supplies the yaw of the gyro in radians
+     */
+    public void addYawSupplier(DoubleSupplier sup) {
+        yawSupplier = sup;
     }
 
     private void run() {
         long startTime = RobotController.getFPGATime();
-        swerveDataSender.send(
-            new SwerveDriveSample(
-                new SwerveDriveWheelPositions(getModulePositions()),
-                rotationSupplier.get(),
-                0.0,
-                Timer.getFPGATimestamp()
-            )
-        );
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            sample.setModule(i, distanceSuppliers[i].getAsDouble(), angleSuppliers[i].getAsDouble());
+        }
+        sample.setGyroYawRads(yawSupplier.getAsDouble());
+        sample.setGforce(0.0);
+        sample.setTimestamp(Timer.getFPGATimestamp());
+        swerveDataSender.send(sample);
         updateTimeMicros.set(RobotController.getFPGATime() - startTime);
+        runSampleCallback();
     }
 
     @Override
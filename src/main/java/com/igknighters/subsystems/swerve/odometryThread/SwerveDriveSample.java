@@ -1,11 +1,95 @@
 package com.igknighters.subsystems.swerve.odometryThread;
 
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.SwerveDriveWheelPositions;
-
-public record SwerveDriveSample(
-    SwerveDriveWheelPositions modulePositions,
-    Rotation2d gyroYaw,
-    double gforce,
-    double timestamp
-) {}
+import com.igknighters.util.plumbing.PrimitiveChannel.PrimitiveRecord;
+
+/**
+ * A single odometry sample stored as a flat {@code double[]} so it can be sent through a
+ * {@link com.igknighters.util.plumbing.PrimitiveChannel} without allocating.
+ *
+ * Samples are meant to be reused, the odometry thread owns one it writes every tick
+ * and each consumer owns one it receives into.
+ *
+ * Layout: {@code [timestamp, distance0..3, angle0..3, gyroYaw, gforce]}
+ */
+public final class SwerveDriveSample implements PrimitiveRecord {
+    public static final int MODULE_COUNT = 4;
+
+    private static final int TIMESTAMP = 0;
+    private static final int DISTANCES = TIMESTAMP + 1;
+    private static final int ANGLES = DISTANCES + MODULE_COUNT;
+    private static final int GYRO_YAW = ANGLES + MODULE_COUNT;
+    private static final int GFORCE = GYRO_YAW + 1;
+
+    /** The amount of doubles in a sample */
+    public static final int LENGTH = GFORCE + 1;
+
+    private final double[] data = new double[LENGTH];
+
+    @Override
+    public double[] data() {
+        return data;
+    }
+
+    /**
+     * @return the FPGA timestamp of the sample in seconds
+     */
+    public double timestamp() {
+        return data[TIMESTAMP];
+    }
+
+    /**
+     * @param moduleId the module to get the distance of
+     * @return the distance the module has driven in meters
+     */
+    public double moduleDistance(int moduleId) {
+        return data[DISTANCES + moduleId];
+    }
+
+    /**
+     * @param moduleId the module to get the angle of
+     * @return the angle of the module in radians
+     */
+    public double moduleAngleRads(int moduleId) {
+        return data[ANGLES + moduleId];
+    }
+
+    /**
+     * @return the yaw of the gyro in radians
+     */
+    public double gyroYawRads() {
+        return data[GYRO_YAW];
+    }
+
+    /**
+     * @return the planar acceleration magnitude measured by the gyro in g
+     */
+    public double gforce() {
+        return data[GFORCE];
+    }
+
+    public void setTimestamp(double timestamp) {
+        data[TIMESTAMP] = timestamp;
+    }
+
+    public void setModule(int moduleId, double distanceMeters, double angleRads) {
+        data[DISTANCES + moduleId] = distanceMeters;
+        data[ANGLES + moduleId] = angleRads;
+    }
+
+    public void setGyroYawRads(double yawRads) {
+        data[GYRO_YAW] = yawRads;
+    }
+
+    public void setGforce(double gforce) {
+        data[GFORCE] = gforce;
+    }
+
+    /**
+     * Copies every field of another sample into this one
+     *
+     * @param other the sample to copy from
+     */
+    public void copyFrom(SwerveDriveSample other) {
+        System.arraycopy(other.data, 0, data, 0, LENGTH);
+    }
+}
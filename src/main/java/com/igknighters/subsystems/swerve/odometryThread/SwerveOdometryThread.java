@@ -2,8 +2,9 @@ package com.igknighters.subsystems.swerve.odometryThread;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-import com.igknighters.util.plumbing.Channel.Sender;
+import com.igknighters.util.plumbing.PrimitiveChannel.Sender;
 
 import monologue.Logged;
 import monologue.Annotations.Log;
@@ -11,23 +12,80 @@ import monologue.Annotations.Log;
 public abstract class SwerveOdometryThread implements Logged {
     protected final static int MODULE_COUNT = 4;
 
-    protected final int hz;
+    /** The rate samples are sent at, only changed by the odometry thread */
+    protected volatile int hz;
 
     protected final AtomicBoolean isRunning = new AtomicBoolean(false);
     protected final AtomicLong updateTimeMicros = new AtomicLong();
 
+    /**
+     * The amount of buckets in the wake jitter histogram, bucket {@code i} counts wakes that came
+     * less than {@code 2^i} microseconds after the newest frame and the last bucket counts everything slower.
+     */
+    public static final int JITTER_BUCKETS = 16;
+    private final AtomicLongArray wakeJitterHistogram = new AtomicLongArray(JITTER_BUCKETS);
+    /** Reused by {@link #wakeJitterHistogram()} so logging doesn't allocate */
+    private final long[] jitterSnapshot = new long[JITTER_BUCKETS];
+
     protected final Sender<SwerveDriveSample> swerveDataSender;
+    /** The sample reused for every send, only touched by the odometry thread */
+    protected final SwerveDriveSample sample = new SwerveDriveSample();
+
+    private volatile Runnable sampleCallback = null;
 
     protected SwerveOdometryThread(int hz, Sender<SwerveDriveSample> swerveDataSender) {
         this.hz = hz;
         this.swerveDataSender = swerveDataSender;
     }
 
+    /**
+     * Sets a callback to run on the odometry thread right after every sample is sent,
+     * it runs at the odometry rate so it must not block
+     *
+     * @param callback the callback or null to remove it
+     */
+    public void setSampleCallback(Runnable callback) {
+        sampleCallback = callback;
+    }
+
+    /**
+     * Runs the sample callback if one is set, called by the odometry thread after every send
+     */
+    protected void runSampleCallback() {
+        final Runnable callback = sampleCallback;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
     @Log
     private double updateTimeMili() {
         return updateTimeMicros.get() / 1_000.0;
     }
 
+    /**
+     * Records how long after the newest sampled frame the thread got to run
+     *
+     * @param jitterMicros the delay in microseconds
+     */
+    protected void recordWakeJitter(long jitterMicros) {
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(0, jitterMicros)), JITTER_BUCKETS - 1);
+        wakeJitterHistogram.incrementAndGet(bucket);
+    }
+
+    @Log
+    private long[] wakeJitterHistogram() {
+        for (int i = 0; i < JITTER_BUCKETS; i++) {
+            jitterSnapshot[i] = wakeJitterHistogram.get(i);
+        }
+        return jitterSnapshot;
+    }
+
+    @Log
+    private int hz() {
+        return hz;
+    }
+
     @Log
     private boolean isRunning() {
         return isRunning.get();
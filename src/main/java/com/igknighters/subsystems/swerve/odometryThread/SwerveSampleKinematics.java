@@ -0,0 +1,118 @@
+package com.igknighters.subsystems.swerve.odometryThread;
+
+import com.igknighters.util.geom.PrimitiveSE2;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+
+/**
+ * Closed form swerve forward kinematics between two {@link SwerveDriveSample}s
+ * or from a set of module speeds.
+ *
+ * {@link SwerveDriveKinematics#toTwist2d} solves the same least squares problem through
+ * an EJML pseudo-inverse every call. With the module offsets fixed, the 3x3 normal matrix
+ * {@code A^T A} can be inverted once up front, leaving a handful of multiply-adds per sample.
+ */
+public final class SwerveSampleKinematics {
+    private final double[] moduleX = new double[SwerveDriveSample.MODULE_COUNT];
+    private final double[] moduleY = new double[SwerveDriveSample.MODULE_COUNT];
+    /** The row major inverse of {@code A^T A} */
+    private final double[] inverseNormal = new double[9];
+
+    /**
+     * Creates new kinematics
+     *
+     * @param moduleOffsets the location of every module relative to the center of the robot
+     */
+    public SwerveSampleKinematics(Translation2d... moduleOffsets) {
+        if (moduleOffsets.length != SwerveDriveSample.MODULE_COUNT) {
+            throw new IllegalArgumentException(
+                "Expected " + SwerveDriveSample.MODULE_COUNT + " module offsets, got " + moduleOffsets.length
+            );
+        }
+        double sumX = 0.0;
+        double sumY = 0.0;
+        double sumSquares = 0.0;
+        for (int i = 0; i < moduleOffsets.length; i++) {
+            moduleX[i] = moduleOffsets[i].getX();
+            moduleY[i] = moduleOffsets[i].getY();
+            sumX += moduleX[i];
+            sumY += moduleY[i];
+            sumSquares += moduleX[i] * moduleX[i] + moduleY[i] * moduleY[i];
+        }
+        final double n = moduleOffsets.length;
+
+        // every module contributes the rows [1, 0, -y] and [0, 1, x] to A
+        final double a = n, b = 0.0, c = -sumY;
+        final double d = 0.0, e = n, f = sumX;
+        final double g = -sumY, h = sumX, k = sumSquares;
+
+        final double det = a * (e * k - f * h) - b * (d * k - f * g) + c * (d * h - e * g);
+        if (Math.abs(det) < 1E-12) {
+            throw new IllegalArgumentException("Module offsets do not constrain the chassis motion");
+        }
+        inverseNormal[0] = (e * k - f * h) / det;
+        inverseNormal[1] = (c * h - b * k) / det;
+        inverseNormal[2] = (b * f - c * e) / det;
+        inverseNormal[3] = (f * g - d * k) / det;
+        inverseNormal[4] = (a * k - c * g) / det;
+        inverseNormal[5] = (c * d - a * f) / det;
+        inverseNormal[6] = (d * h - e * g) / det;
+        inverseNormal[7] = (b * g - a * h) / det;
+        inverseNormal[8] = (a * e - b * d) / det;
+    }
+
+    /**
+     * Computes the chassis twist between two samples, each module delta is the change in distance
+     * pointed along the module angle of the newer sample like {@link SwerveDriveKinematics#toTwist2d}.
+     *
+     * @param previous the older sample
+     * @param current the newer sample
+     * @param out the twist to write the result to, see {@link PrimitiveSE2}
+     */
+    public void toTwist(SwerveDriveSample previous, SwerveDriveSample current, double[] out) {
+        double bx = 0.0;
+        double by = 0.0;
+        double btheta = 0.0;
+        for (int i = 0; i < SwerveDriveSample.MODULE_COUNT; i++) {
+            final double delta = current.moduleDistance(i) - previous.moduleDistance(i);
+            final double angle = current.moduleAngleRads(i);
+            final double vx = delta * Math.cos(angle);
+            final double vy = delta * Math.sin(angle);
+            bx += vx;
+            by += vy;
+            btheta += -moduleY[i] * vx + moduleX[i] * vy;
+        }
+        solve(bx, by, btheta, out);
+    }
+
+    /**
+     * Computes the chassis speeds from module speeds like {@link SwerveDriveKinematics#toChassisSpeeds}.
+     *
+     * @param moduleSpeeds the speed of every module in meters per second
+     * @param moduleAnglesRads the angle of every module in radians
+     * @param out the speeds to write the result to, laid out like a twist in {@link PrimitiveSE2}
+     */
+    public void toChassisSpeeds(double[] moduleSpeeds, double[] moduleAnglesRads, double[] out) {
+        double bx = 0.0;
+        double by = 0.0;
+        double btheta = 0.0;
+        for (int i = 0; i < SwerveDriveSample.MODULE_COUNT; i++) {
+            final double vx = moduleSpeeds[i] * Math.cos(moduleAnglesRads[i]);
+            final double vy = moduleSpeeds[i] * Math.sin(moduleAnglesRads[i]);
+            bx += vx;
+            by += vy;
+            btheta += -moduleY[i] * vx + moduleX[i] * vy;
+        }
+        solve(bx, by, btheta, out);
+    }
+
+    /**
+     * Multiplies {@code A^T b} by the precomputed inverse normal matrix
+     */
+    private void solve(double bx, double by, double btheta, double[] out) {
+        out[PrimitiveSE2.DX] = inverseNormal[0] * bx + inverseNormal[1] * by + inverseNormal[2] * btheta;
+        out[PrimitiveSE2.DY] = inverseNormal[3] * bx + inverseNormal[4] * by + inverseNormal[5] * btheta;
+        out[PrimitiveSE2.DTHETA] = inverseNormal[6] * bx + inverseNormal[7] * by + inverseNormal[8] * btheta;
+    }
+}
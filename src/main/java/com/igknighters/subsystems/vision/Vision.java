@@ -1,41 +1,68 @@
 package com.igknighters.subsystems.vision;
 
 import com.igknighters.Localizer;
+import com.igknighters.Localizer.PoseSnapshot;
 import com.igknighters.constants.ConstValues.kSwerve;
 import com.igknighters.constants.ConstValues.kVision;
 import com.igknighters.subsystems.SubsystemResources.LockFreeSubsystem;
 import com.igknighters.subsystems.vision.camera.Camera;
+import com.igknighters.subsystems.vision.camera.CameraSim;
+import com.igknighters.subsystems.vision.camera.Camera.RawEstimate;
 import com.igknighters.subsystems.vision.camera.Camera.VisionPoseEstimate;
+import com.igknighters.util.PoseHistory;
+import com.igknighters.util.geom.PrimitiveSE2;
 import com.igknighters.util.logging.Tracer;
 import com.igknighters.util.plumbing.Channel.Sender;
-import com.igknighters.util.plumbing.Channel.Receiver;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.wpi.first.math.MathUtil;
-import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.networktables.BooleanEntry;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.IntegerArrayPublisher;
+import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StructPublisher;
 import monologue.Monologue;
 
 public class Vision implements LockFreeSubsystem {
-    private static final ChassisSpeeds ZERO_SPEEDS = new ChassisSpeeds();
+    private static final double MAX_HEADING_DISAGREEMENT = Math.toRadians(30.0);
+
+    /**
+     * Everything a camera's frames are weighed and logged with, only touched by
+     * whichever thread processes that camera's frames so nothing is shared between workers.
+     */
+    private static final class CameraReport {
+        /** Built once so tracing the camera every loop does not concatenate */
+        private final String periodicTrace;
+        private final DoublePublisher rawAmbiguity;
+        private final DoublePublisher error;
+        private final StructPublisher<VisionPoseEstimate> estimate;
+        private final double[] pose = new double[PrimitiveSE2.POSE_LENGTH];
+        private final double[] poseScratch = new double[PoseHistory.SCRATCH_LENGTH];
+
+        private CameraReport(String cameraName, NetworkTable table) {
+            periodicTrace = cameraName + "Periodic";
+            rawAmbiguity = table.getDoubleTopic("rawAmbiguity").publish();
+            error = table.getDoubleTopic("error").publish();
+            estimate = table.getStructTopic("estimate", VisionPoseEstimate.struct).publish();
+        }
+    }
 
     private final Localizer localizer;
 
-    private final Receiver<ChassisSpeeds> velocityReceiver;
     private final Sender<VisionPoseEstimate> visionSender;
 
     private final Camera[] cameras;
+    private final CameraReport[] reports;
 
     private final BooleanEntry cameraPositionFieldVisualizer;
 
-    private HashSet<Integer> seenTags = new HashSet<>();
+    /** The tags seen since the last periodic as a bitmask, see {@link VisionPoseEstimate#tagBit(int)} */
+    private final AtomicLong seenTags = new AtomicLong();
+    private final IntegerArrayPublisher seenTagsPublisher;
+    private long publishedTags = -1L;
 
     public Vision(final Localizer localizer) {
         this.localizer = localizer;
@@ -43,9 +70,17 @@ public class Vision implements LockFreeSubsystem {
                 .stream()
                 .map(Camera::create)
                 .toArray(Camera[]::new);
+        this.reports = new CameraReport[cameras.length];
 
+        CameraSim.GroundTruth groundTruth = null;
         for (final var camera : cameras) {
             Monologue.logTree(camera, "/Robot/Vision/" + camera.getName());
+            if (camera instanceof CameraSim sim) {
+                if (groundTruth == null) {
+                    groundTruth = new CameraSim.GroundTruth(localizer);
+                }
+                sim.setGroundTruth(groundTruth);
+            }
         }
 
         cameraPositionFieldVisualizer = NetworkTableInstance.getDefault()
@@ -54,72 +89,100 @@ public class Vision implements LockFreeSubsystem {
                 .getEntry(false);
         cameraPositionFieldVisualizer.accept(false);
 
-        velocityReceiver = localizer.velocityChannel().openReceiver(1);
         visionSender = localizer.visionDataSender();
-    }
-
-    @Override
-    public void periodic() {
-        Tracer.startTrace("VisionPeriodic");
-
-        for (Camera camera : cameras) {
-            Tracer.startTrace(camera.getName() + "Periodic");
-            camera.periodic();
 
-            Pose2d localPose = localizer.pose();
+        final NetworkTable table = NetworkTableInstance.getDefault().getTable("/Robot/" + getOverrideName());
+        seenTagsPublisher = table.getIntegerArrayTopic("seenTags").publish();
 
-            Optional<VisionPoseEstimate> optEval = camera.evalPose();
-
-            if (!optEval.isPresent() || camera.getFaults().isFaulty()) {
-                Tracer.endTrace();
-                continue;
+        for (int i = 0; i < cameras.length; i++) {
+            final String name = cameras[i].getName();
+            reports[i] = new CameraReport(name, table.getSubTable("cameras").getSubTable(name));
+            if (kVision.ASYNC_CAMERAS) {
+                final int index = i;
+                cameras[i].startWorker(() -> processFrame(index));
             }
+        }
+    }
 
-            VisionPoseEstimate eval = optEval.get();
+    /**
+     * Weighs the latest estimate of a camera and sends it to the localizer,
+     * runs on the camera's worker or on the main loop when workers are disabled.
+     */
+    private void processFrame(int index) {
+        final Camera camera = cameras[index];
+        final CameraReport report = reports[index];
+        final RawEstimate eval = camera.evalPose();
+
+        if (eval == null || camera.getFaults().isFaulty()) {
+            return;
+        }
 
-            double error = 0.05;
+        double error = 0.05;
 
-            error += Math.pow(Math.sqrt(eval.trust()), 3.0);
+        error += Math.pow(Math.sqrt(eval.ambiguity()), 3.0);
 
-            log("cameras/" + camera.getName() + "/rawAmbiguity", error);
+        report.rawAmbiguity.set(error);
 
-            if (camera.getFaults().outOfRange()) {
-                error *= 2.0;
-            }
+        if (camera.getFaults().outOfRange()) {
+            error *= 2.0;
+        }
 
-            if (eval.apriltags().size() < 2) {
-                error *= 2.0;
-            }
+        if (eval.tagCount() < 2) {
+            error *= 2.0;
+        }
 
-            ChassisSpeeds velo = velocityReceiver.inspectOrDefault(ZERO_SPEEDS);
-            if (new Translation2d(velo.vxMetersPerSecond, velo.vyMetersPerSecond).getNorm() > kSwerve.MAX_DRIVE_VELOCITY
-                    / 2.0) {
-                error *= 2.0;
-            }
-            if (velo.omegaRadiansPerSecond > kSwerve.MAX_ANGULAR_VELOCITY / 3.0) {
-                error *= 2.0;
-            }
+        PoseSnapshot velo = localizer.snapshot();
+        if (Math.hypot(velo.vxMetersPerSecond(), velo.vyMetersPerSecond()) > kSwerve.MAX_DRIVE_VELOCITY / 2.0) {
+            error *= 2.0;
+        }
+        if (velo.omegaRadiansPerSecond() > kSwerve.MAX_ANGULAR_VELOCITY / 3.0) {
+            error *= 2.0;
+        }
 
-            Rotation2d rotation = localPose.getRotation();
-            if (Math.abs(
-                MathUtil.angleModulus(rotation.getRadians())
-                - MathUtil.angleModulus(eval.pose().getRotation().toRotation2d().getRadians())
-                ) > Math.toRadians(30.0)) {
-                error *= 2.0;
-            }
+        // compare against where the robot was when the frame was captured
+        localizer.poseAt(eval.timestamp(), report.pose, report.poseScratch);
+        final double heading = Math.atan2(report.pose[PrimitiveSE2.SIN], report.pose[PrimitiveSE2.COS]);
+        if (Math.abs(
+            MathUtil.angleModulus(heading)
+            - MathUtil.angleModulus(eval.pose().getRotation().getZ())
+            ) > MAX_HEADING_DISAGREEMENT) {
+            error *= 2.0;
+        }
 
-            log("cameras/" + camera.getName() + "/error", error);
+        report.error.set(error);
 
-            visionSender.send(eval.withError(error));
+        // the one allocation per frame, the localizer may hold onto it after the next frame
+        final VisionPoseEstimate estimate = eval.toEstimate(error);
+        report.estimate.set(estimate);
+        visionSender.send(estimate);
 
-            seenTags.addAll(eval.apriltags());
+        seenTags.getAndAccumulate(eval.apriltags(), (seen, tags) -> seen | tags);
+    }
 
-            Tracer.endTrace();
-        }
+    @Override
+    public void periodic() {
+        Tracer.startTrace("VisionPeriodic");
 
-        log("seenTags", seenTags.stream().mapToInt(i -> i).toArray());
+        if (!kVision.ASYNC_CAMERAS) {
+            for (int i = 0; i < cameras.length; i++) {
+                Tracer.startTrace(reports[i].periodicTrace);
+                cameras[i].periodic();
+                processFrame(i);
+                Tracer.endTrace();
+            }
+        }
 
-        seenTags.clear();
+        final long tags = seenTags.getAndSet(0L);
+        if (tags != publishedTags) {
+            final long[] ids = new long[Long.bitCount(tags)];
+            long remaining = tags;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+            }
+            seenTagsPublisher.set(ids);
+            publishedTags = tags;
+        }
 
         Tracer.endTrace();
     }
@@ -0,0 +1,189 @@
+package com.igknighters.subsystems.vision;
+
+import java.util.List;
+
+import com.igknighters.subsystems.vision.camera.Camera.VisionPoseEstimate;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+
+/**
+ * Merges the vision estimates of every camera that were captured close together into a single
+ * estimate before they are fused, so the cost of fusing vision scales with time instead of camera count.
+ *
+ * Estimates are grouped by capture time, a group spans the coalescing window or one period of the
+ * max fusion rate, whichever is longer, and starts no sooner than one span after the group before it.
+ * A group stays open until the fused odometry time passes its end by the expected vision latency,
+ * so frames from slower cameras still make it in, and a frame that misses its group joins the next one.
+ * A group is weighted the way the estimator would weigh its estimates one after another:
+ * the pose is the trust weighted mean and the trust is {@code 1 - (1 - trust0)(1 - trust1)...}.
+ * A group of one is passed through untouched.
+ *
+ * Not thread safe, owned by whichever thread fuses.
+ */
+public class VisionCoalescer {
+    /** The camera ID given to estimates merged from more than one camera */
+    public static final int MERGED_CAMERA_ID = -1;
+
+    /** The running sums of one group, reused once the group is emitted */
+    private static final class Group {
+        private double start = 0.0;
+        private VisionPoseEstimate first = null;
+        private int count = 0;
+        private int cameraId = 0;
+        private double weightSum, xSum, ySum, cosSum, sinSum, timestampSum;
+        private double untrusted = 1.0;
+        private long apriltags = 0L;
+        private double maxDistance = 0.0;
+
+        private void open(double start, VisionPoseEstimate first) {
+            this.start = start;
+            this.first = first;
+            this.cameraId = first.cameraId();
+        }
+
+        private void add(VisionPoseEstimate estimate) {
+            // an all zero trust group still averages evenly
+            final double weight = Math.max(estimate.trust(), 1e-9);
+            final Pose3d pose = estimate.pose();
+            final double heading = pose.getRotation().getZ();
+            weightSum += weight;
+            xSum += pose.getX() * weight;
+            ySum += pose.getY() * weight;
+            cosSum += Math.cos(heading) * weight;
+            sinSum += Math.sin(heading) * weight;
+            timestampSum += estimate.timestamp() * weight;
+            untrusted *= 1.0 - Math.min(Math.max(estimate.trust(), 0.0), 1.0);
+            apriltags |= estimate.apriltags();
+            maxDistance = Math.max(maxDistance, estimate.maxDistance());
+            if (estimate.cameraId() != cameraId) {
+                cameraId = MERGED_CAMERA_ID;
+            }
+            count++;
+        }
+
+        private VisionPoseEstimate close() {
+            final VisionPoseEstimate merged;
+            if (count == 1) {
+                merged = first;
+            } else {
+                merged = new VisionPoseEstimate(
+                    cameraId,
+                    new Pose3d(
+                        xSum / weightSum,
+                        ySum / weightSum,
+                        0.0,
+                        new Rotation3d(0.0, 0.0, Math.atan2(sinSum, cosSum))
+                    ),
+                    timestampSum / weightSum,
+                    apriltags,
+                    1.0 - untrusted,
+                    maxDistance
+                );
+            }
+            first = null;
+            count = 0;
+            weightSum = 0.0;
+            xSum = 0.0;
+            ySum = 0.0;
+            cosSum = 0.0;
+            sinSum = 0.0;
+            timestampSum = 0.0;
+            untrusted = 1.0;
+            apriltags = 0L;
+            maxDistance = 0.0;
+            return merged;
+        }
+    }
+
+    private final double span;
+    private final double latency;
+
+    /** The open groups oldest first as a ring, a span apart or more */
+    private Group[] groups = new Group[8];
+    private int head = 0;
+    private int open = 0;
+    /** The start of the newest group ever opened, the next group can't start within a span of it */
+    private double lastGroupStart = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param window the seconds between captures that are considered the same instant
+     * @param maxFusionHz the most estimates to emit per second of capture time
+     * @param latency the seconds to hold a group open past its end for frames still in flight
+     */
+    public VisionCoalescer(double window, double maxFusionHz, double latency) {
+        if (window < 0.0 || maxFusionHz <= 0.0 || latency < 0.0) {
+            throw new IllegalArgumentException("Invalid vision coalescing bounds");
+        }
+        this.span = Math.max(window, 1.0 / maxFusionHz);
+        this.latency = latency;
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new Group();
+        }
+    }
+
+    private Group group(int index) {
+        return groups[(head + index) % groups.length];
+    }
+
+    private Group openGroup(double start, VisionPoseEstimate first) {
+        if (open == groups.length) {
+            final Group[] grown = new Group[groups.length * 2];
+            for (int i = 0; i < open; i++) {
+                grown[i] = group(i);
+            }
+            for (int i = open; i < grown.length; i++) {
+                grown[i] = new Group();
+            }
+            groups = grown;
+            head = 0;
+        }
+        final Group group = group(open++);
+        group.open(start, first);
+        lastGroupStart = start;
+        return group;
+    }
+
+    /**
+     * Finds the group an estimate belongs to, opening one if it is newer than every open group.
+     * Estimates captured before a group but after the one before it join that group,
+     * including ones older than every open group that missed their own.
+     */
+    private Group groupFor(VisionPoseEstimate estimate) {
+        final double timestamp = estimate.timestamp();
+        if (open == 0) {
+            return openGroup(Math.max(timestamp, lastGroupStart + span), estimate);
+        }
+        final Group newest = group(open - 1);
+        if (timestamp >= newest.start + span) {
+            return openGroup(Math.max(timestamp, newest.start + span), estimate);
+        }
+        for (int i = 0; i < open - 1; i++) {
+            if (timestamp < group(i).start + span) {
+                return group(i);
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Adds estimates to the groups and collects every group that is complete.
+     * A group is complete once {@code now} is past its end by the latency, estimates that arrive
+     * after their group completed join the next group so late cameras never raise the fusion rate.
+     *
+     * @param estimates the new estimates sorted by timestamp
+     * @param now the newest FPGA timestamp that has been fused
+     * @param out the list complete groups are appended to in order
+     */
+    public void coalesce(List<VisionPoseEstimate> estimates, double now, List<VisionPoseEstimate> out) {
+        for (int i = 0; i < estimates.size(); i++) {
+            final VisionPoseEstimate estimate = estimates.get(i);
+            groupFor(estimate).add(estimate);
+        }
+        while (open > 0 && now >= group(0).start + span + latency) {
+            out.add(group(0).close());
+            head = (head + 1) % groups.length;
+            open--;
+        }
+    }
+}
@@ -5,16 +5,10 @@ import com.igknighters.Robot;
 import edu.wpi.first.wpilibj.Timer;
 import monologue.Annotations.Log;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.function.Consumer;
 import java.nio.ByteBuffer;
 
-import edu.wpi.first.math.Pair;
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Transform3d;
-import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.util.struct.Struct;
 import edu.wpi.first.util.struct.StructSerializable;
 
@@ -25,31 +19,63 @@ import com.igknighters.constants.ConstValues.kVision;
 import com.igknighters.subsystems.Component;
 
 public abstract class Camera extends Component {
+    // written by the worker thread when one is started, the main loop only logs them
     @Log
-    protected VisionPoseEstimate latestPoseEst;
+    protected volatile VisionEstimateFault latestFault;
     @Log
-    protected VisionEstimateFault latestFault;
+    protected volatile boolean isPresent = false;
     @Log
-    protected boolean isPresent = false;
-    @Log
-    protected boolean isConnected = false;
+    protected volatile boolean isConnected = false;
+
+    /** The estimate of the latest frame, refilled in place every frame */
+    protected final RawEstimate latestEstimate;
+
+    /** The translation of the last estimate without extreme jitter */
+    private boolean hasPreviousPose = false;
+    private double previousX, previousY, previousZ;
+    private final Timer previousPoseTimer = new Timer();
 
     protected Camera(int id) {
-        this.latestPoseEst = VisionPoseEstimate.empty(id);
+        this.latestEstimate = new RawEstimate(id);
         this.latestFault = VisionEstimateFault.empty();
     }
 
-    protected void update(Optional<Pair<VisionPoseEstimate, VisionEstimateFault>> estimate, boolean isConnected) {
-        if (estimate.isPresent()) {
-            latestPoseEst = estimate.get().getFirst();
-            latestFault = estimate.get().getSecond();
-            isPresent = true;
-        } else {
-            isPresent = false;
+    /**
+     * @param isPresent if {@link #latestEstimate} was refilled by this frame
+     * @param fault the faults of the estimate, ignored if no estimate is present
+     * @param isConnected if the camera is connected
+     */
+    protected void update(boolean isPresent, VisionEstimateFault fault, boolean isConnected) {
+        if (isPresent) {
+            latestFault = fault;
         }
+        this.isPresent = isPresent;
         this.isConnected = isConnected;
     }
 
+    /**
+     * Checks {@link #latestEstimate} for faults, jitter is measured against the last
+     * estimate that didn't jitter so a single bad frame doesn't hide the next good one.
+     * Must only be called from the thread that estimates.
+     * 
+     * @return The faults of the latest estimate
+     */
+    protected VisionEstimateFault checkLatestFaults() {
+        VisionEstimateFault fault = VisionEstimateFault.empty();
+        if (hasPreviousPose) {
+            fault = latestEstimate.checkFaults(previousX, previousY, previousZ, previousPoseTimer.get());
+        }
+        if (!fault.extremeJitter()) {
+            final Pose3d pose = latestEstimate.pose();
+            previousX = pose.getX();
+            previousY = pose.getY();
+            previousZ = pose.getZ();
+            previousPoseTimer.restart();
+            hasPreviousPose = true;
+        }
+        return fault;
+    }
+
     /**
      * A configuration for a camera.
      * This allows to statically define cameras without instantiating them.
@@ -86,6 +112,9 @@ public abstract class Camera extends Component {
      */
     public static Camera create(CameraConfig config) {
         if (Robot.isSimulation()) {
+            if (kVision.kSim.ENABLED && !Robot.isUnitTest()) {
+                return new CameraSim(config.cameraName, config.id, config.cameraPose);
+            }
             return new CameraDisabled(config.cameraName, config.id, config.cameraPose);
         } else {
             try {
@@ -98,16 +127,25 @@ public abstract class Camera extends Component {
     }
 
     /**
-     * Uses the cameras PoseEstimation pipeline to estimate the pose of the robot.
+     * Moves estimation off of {@link #periodic()} onto a thread of its own that wakes
+     * whenever the camera publishes a frame, {@link #periodic()} then does nothing.
+     * Cameras that never produce frames don't start a thread.
+     *
+     * Calling this more than once does nothing.
+     *
+     * @param onFrame called from the worker after every frame that produced an estimate,
+     *     {@link #evalPose()} and {@link #getFaults()} are only consistent when called from it
+     */
+    public void startWorker(Runnable onFrame) {}
+
+    /**
+     * Gets the estimate the cameras PoseEstimation pipeline made from the latest frame.
      * 
-     * @return An optional containing the pose estimation if it was successful
+     * @return The estimate or null if the latest frame had none, the estimate is refilled
+     *         by the next frame so it must not be held on to
      */
-    public Optional<VisionPoseEstimate> evalPose() {
-        if (isPresent) {
-            return Optional.of(latestPoseEst);
-        } else {
-            return Optional.empty();
-        }
+    public RawEstimate evalPose() {
+        return isPresent ? latestEstimate : null;
     }
 
     /**
@@ -119,7 +157,7 @@ public abstract class Camera extends Component {
         if (isPresent) {
             return latestFault;
         } else {
-            return new VisionEstimateFault(false, false, false, false, false, false, false, false, false);
+            return VisionEstimateFault.empty();
         }
     }
 
@@ -152,15 +190,139 @@ public abstract class Camera extends Component {
         return getName();
     }
 
+    /**
+     * The estimate of a single frame before it is weighed.
+     * 
+     * Every camera refills one instance in place for every frame so estimating doesn't allocate,
+     * {@link #toEstimate(double)} makes the immutable estimate that is handed to other threads.
+     */
+    public static final class RawEstimate {
+        private final int cameraId;
+        private Pose3d pose = new Pose3d();
+        private double timestamp = 0.0;
+        private long apriltags = 0L;
+        private double ambiguity = 0.0;
+        private double maxDistance = 0.0;
+
+        public RawEstimate(int cameraId) {
+            this.cameraId = cameraId;
+        }
+
+        /**
+         * Refills the estimate
+         * 
+         * @param pose        The estimated pose of the robot
+         * @param timestamp   The FPGA timestamp the frame was captured at
+         * @param apriltags   The tags used as a bitmask, see {@link VisionPoseEstimate#tagBit(int)}
+         * @param ambiguity   The average ambiguity of the tags used
+         * @param maxDistance The distance to the farthest tag used
+         */
+        public void set(Pose3d pose, double timestamp, long apriltags, double ambiguity, double maxDistance) {
+            this.pose = pose;
+            this.timestamp = timestamp;
+            this.apriltags = apriltags;
+            this.ambiguity = ambiguity;
+            this.maxDistance = maxDistance;
+        }
+
+        public int cameraId() {
+            return cameraId;
+        }
+
+        public Pose3d pose() {
+            return pose;
+        }
+
+        public double timestamp() {
+            return timestamp;
+        }
+
+        public long apriltags() {
+            return apriltags;
+        }
+
+        public int tagCount() {
+            return Long.bitCount(apriltags);
+        }
+
+        public double ambiguity() {
+            return ambiguity;
+        }
+
+        public double maxDistance() {
+            return maxDistance;
+        }
+
+        /**
+         * Checks the estimate for anything that makes it unusable
+         * 
+         * @param lastX            The x of the last estimate without extreme jitter
+         * @param lastY            The y of the last estimate without extreme jitter
+         * @param lastZ            The z of the last estimate without extreme jitter
+         * @param secondsSinceLast The time since the last estimate without extreme jitter
+         * @return The faults
+         */
+        public VisionEstimateFault checkFaults(double lastX, double lastY, double lastZ, double secondsSinceLast) {
+            final double x = pose.getX();
+            final double y = pose.getY();
+            final double z = pose.getZ();
+            boolean oob = x < 0.0
+                    || x > FieldConstants.FIELD_LENGTH
+                    || y < 0.0
+                    || y > FieldConstants.FIELD_WIDTH
+                    || Double.isNaN(x)
+                    || Double.isNaN(y);
+            final double dx = x - lastX;
+            final double dy = y - lastY;
+            final double dz = z - lastZ;
+            return VisionEstimateFault.of(
+                    oob,
+                    maxDistance > 6.0,
+                    ambiguity > kVision.AMBIGUITY_CUTOFF,
+                    Math.sqrt(dx * dx + dy * dy + dz * dz) > secondsSinceLast * kSwerve.MAX_DRIVE_VELOCITY,
+                    apriltags == 0L,
+                    Math.abs(z) > kVision.MAX_Z_DELTA,
+                    pose.getRotation().getY() > kVision.MAX_ANGLE_DELTA,
+                    pose.getRotation().getX() > kVision.MAX_ANGLE_DELTA,
+                    false);
+        }
+
+        /**
+         * @param error The error the estimate was weighed with
+         * @return An immutable copy of the estimate that trusts it by the error
+         */
+        public VisionPoseEstimate toEstimate(double error) {
+            return new VisionPoseEstimate(cameraId, pose, timestamp, apriltags, error, maxDistance);
+        }
+    }
+
+    /**
+     * @param apriltags The tags used as a bitmask, see {@link #tagBit(int)}
+     */
     public record VisionPoseEstimate(
             int cameraId,
             Pose3d pose,
             double timestamp,
-            List<Integer> apriltags,
+            long apriltags,
             double trust,
             double maxDistance
         ) implements StructSerializable {
 
+        /**
+         * Gets the bit a tag is stored as in {@link #apriltags()},
+         * tags outside of the 64 a long can hold are left out.
+         * 
+         * @param tagId The ID of the tag
+         * @return The bit or 0 if the ID doesn't fit
+         */
+        public static long tagBit(int tagId) {
+            return tagId >= 0 && tagId < Long.SIZE ? 1L << tagId : 0L;
+        }
+
+        public int tagCount() {
+            return Long.bitCount(apriltags);
+        }
+
         public double distanceFrom(VisionPoseEstimate other) {
             return pose.getTranslation().getDistance(other.pose.getTranslation());
         }
@@ -170,44 +332,11 @@ public abstract class Camera extends Component {
                     id,
                     new Pose3d(),
                     0,
-                    List.of(),
+                    0L,
                     0.0,
                     0.0);
         }
 
-        public Pair<VisionPoseEstimate, VisionEstimateFault> withFault(
-                VisionPoseEstimate last,
-                Timer jitterTimer,
-                Consumer<VisionPoseEstimate> jitterReseter) {
-            Translation2d simplePose = pose.getTranslation().toTranslation2d();
-            boolean oob = simplePose.getX() < 0.0
-                    || simplePose.getX() > FieldConstants.FIELD_LENGTH
-                    || simplePose.getY() < 0.0
-                    || simplePose.getY() > FieldConstants.FIELD_WIDTH
-                    || Double.isNaN(simplePose.getX())
-                    || Double.isNaN(simplePose.getY());
-            VisionEstimateFault fault = new VisionEstimateFault(
-                    oob,
-                    maxDistance > 6.0,
-                    trust > kVision.AMBIGUITY_CUTOFF,
-                    this.distanceFrom(last) > jitterTimer.get() * kSwerve.MAX_DRIVE_VELOCITY,
-                    this.apriltags.isEmpty(),
-                    Math.abs(pose.getTranslation().getZ()) > kVision.MAX_Z_DELTA,
-                    pose.getRotation().getY() > kVision.MAX_ANGLE_DELTA,
-                    pose.getRotation().getX() > kVision.MAX_ANGLE_DELTA,
-                    false);
-
-            if (!fault.extremeJitter) {
-                jitterReseter.accept(this);
-            }
-
-            return new Pair<>(this, fault);
-        }
-
-        public VisionPoseEstimate withError(double newError) {
-            return new VisionPoseEstimate(cameraId, pose, timestamp, apriltags, newError, maxDistance);
-        }
-
         public static class VisionPoseEstimateStruct implements Struct<VisionPoseEstimate> {
             @Override
             public Class<VisionPoseEstimate> getTypeClass() {
@@ -250,8 +379,7 @@ public abstract class Camera extends Component {
                 double timestamp = bb.getDouble();
                 double ambiguity = bb.getDouble();
                 double maxDistance = bb.getDouble();
-                return new VisionPoseEstimate(cameraId, pose, timestamp, new ArrayList<Integer>(), ambiguity,
-                        maxDistance);
+                return new VisionPoseEstimate(cameraId, pose, timestamp, 0L, ambiguity, maxDistance);
             }
         }
 
@@ -269,8 +397,51 @@ public abstract class Camera extends Component {
             boolean infeasibleRollValue,
             boolean isDisabled) implements StructSerializable {
 
+        /** Every combination of faults, indexed by the faults as bits in declaration order */
+        private static final VisionEstimateFault[] ALL = new VisionEstimateFault[1 << 9];
+
+        static {
+            for (int bits = 0; bits < ALL.length; bits++) {
+                ALL[bits] = new VisionEstimateFault(
+                        (bits & 1) != 0,
+                        (bits & 2) != 0,
+                        (bits & 4) != 0,
+                        (bits & 8) != 0,
+                        (bits & 16) != 0,
+                        (bits & 32) != 0,
+                        (bits & 64) != 0,
+                        (bits & 128) != 0,
+                        (bits & 256) != 0);
+            }
+        }
+
+        /**
+         * Gets the fault with the given flags without allocating,
+         * every combination is created once up front.
+         */
+        public static VisionEstimateFault of(
+                boolean outOfBounds,
+                boolean outOfRange,
+                boolean tooAmbiguous,
+                boolean extremeJitter,
+                boolean noTags,
+                boolean infeasibleZValue,
+                boolean infeasiblePitchValue,
+                boolean infeasibleRollValue,
+                boolean isDisabled) {
+            return ALL[(outOfBounds ? 1 : 0)
+                    | (outOfRange ? 2 : 0)
+                    | (tooAmbiguous ? 4 : 0)
+                    | (extremeJitter ? 8 : 0)
+                    | (noTags ? 16 : 0)
+                    | (infeasibleZValue ? 32 : 0)
+                    | (infeasiblePitchValue ? 64 : 0)
+                    | (infeasibleRollValue ? 128 : 0)
+                    | (isDisabled ? 256 : 0)];
+        }
+
         public static VisionEstimateFault empty() {
-            return new VisionEstimateFault(false, false, false, false, false, false, false, false, false);
+            return ALL[0];
         }
 
         public boolean isFaulty() {
@@ -1,7 +1,6 @@
 package com.igknighters.subsystems.vision.camera;
 
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.Pair;
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Transform3d;
 
@@ -11,7 +10,6 @@ import org.photonvision.targeting.PhotonTrackedTarget;
 import com.igknighters.util.logging.BootupLogger;
 
 import java.util.List;
-import java.util.Optional;
 import java.util.function.Function;
 
 @SuppressWarnings("unused")
@@ -26,22 +24,14 @@ public class CameraDisabled extends Camera {
         this.cameraPose = cameraPose;
         this.cameraName = cameraName;
 
-        this.update(
-            Optional.of(
-                Pair.of(
-                    VisionPoseEstimate.empty(id),
-                    getFaults()
-                )
-            ),
-            false
-        );
+        this.update(true, getFaults(), false);
 
         BootupLogger.bootupLog("    " + cameraName + " camera initialized (disabled)");
     }
 
     @Override
     public VisionEstimateFault getFaults() {
-        return new VisionEstimateFault(false, false, false, false, false, false, false, false, true);
+        return VisionEstimateFault.of(false, false, false, false, false, false, false, false, true);
     }
 
     @Override
@@ -1,7 +1,9 @@
 package com.igknighters.subsystems.vision.camera;
 
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.locks.LockSupport;
 
 import org.photonvision.EstimatedRobotPose;
 import org.photonvision.PhotonCamera;
@@ -12,26 +14,31 @@ import org.photonvision.targeting.PhotonTrackedTarget;
 
 import com.igknighters.constants.FieldConstants;
 import com.igknighters.util.logging.BootupLogger;
+import com.igknighters.util.logging.Tracer;
 
-import edu.wpi.first.math.Pair;
+import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Transform3d;
-import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.geometry.Translation3d;
-import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.Topic;
+import monologue.Annotations.Log;
 
 /**
  * An abstraction for a photon camera.
  */
 public class CameraRealPhoton extends Camera {
+    /** How long the worker waits for a frame before refreshing the connection status anyway */
+    private static final long WORKER_TIMEOUT_NANOS = 100_000_000L;
+
     private final PhotonCamera camera;
     private final Integer id;
     private final Transform3d cameraPose;
     private final PhotonPoseEstimator poseEstimator;
 
-    private final VisionPoseEstimate noPoseEst;
+    @Log
+    private volatile Pose3d photonPoseEst = new Pose3d();
 
-    private VisionPoseEstimate previousPoseEst;
-    private Timer previousPoseTimer;
+    private Thread worker = null;
 
     /**
      * Creates an abstraction for a photon camera.
@@ -53,53 +60,46 @@ public class CameraRealPhoton extends Camera {
                 this.cameraPose);
         poseEstimator.setTagModel(TargetModel.kAprilTag36h11);
         poseEstimator.setMultiTagFallbackStrategy(PoseStrategy.CLOSEST_TO_CAMERA_HEIGHT);
-        noPoseEst = VisionPoseEstimate.empty(id);
 
         BootupLogger.bootupLog("    " + cameraName + " camera initialized (real)");
     }
 
-    private Optional<VisionPoseEstimate> realEvaluatePose() {
+    /**
+     * Refills {@link #latestEstimate} from the newest frame
+     * 
+     * @return if the frame produced an estimate
+     */
+    private boolean realEvaluatePose() {
         Optional<EstimatedRobotPose> opt = poseEstimator.update();
 
         if (!opt.isPresent()) {
-            log("poseEst", noPoseEst);
-            return Optional.empty();
+            return false;
         }
 
         EstimatedRobotPose estRoboPose = opt.get();
 
-        log("photonPoseEst", estRoboPose.estimatedPose);
-
-        List<Integer> targetIds = estRoboPose.targetsUsed
-                .stream()
-                .map(PhotonTrackedTarget::getFiducialId)
-                .toList();
-
-        double avgAmbiguity = estRoboPose.targetsUsed
-                .stream()
-                .map(PhotonTrackedTarget::getPoseAmbiguity)
-                .reduce(0.0, Double::sum)
-                / estRoboPose.targetsUsed.size();
-
-        double maxDistance = estRoboPose.targetsUsed
-                .stream()
-                .map(PhotonTrackedTarget::getBestCameraToTarget)
-                .map(Transform3d::getTranslation)
-                .map(Translation3d::toTranslation2d)
-                .map(Translation2d::getNorm)
-                .reduce(0.0, Math::max);
-
-        return Optional.of(
-            log(
-                "poseEst",
-                new VisionPoseEstimate(
-                    this.id,
-                    estRoboPose.estimatedPose,
-                    estRoboPose.timestampSeconds,
-                    targetIds,
-                    avgAmbiguity,
-                    maxDistance)
-        ));
+        photonPoseEst = estRoboPose.estimatedPose;
+
+        final List<PhotonTrackedTarget> targets = estRoboPose.targetsUsed;
+        long targetIds = 0L;
+        double ambiguitySum = 0.0;
+        double maxDistance = 0.0;
+        for (int i = 0; i < targets.size(); i++) {
+            final PhotonTrackedTarget target = targets.get(i);
+            targetIds |= VisionPoseEstimate.tagBit(target.getFiducialId());
+            ambiguitySum += target.getPoseAmbiguity();
+            final Transform3d cameraToTarget = target.getBestCameraToTarget();
+            maxDistance = Math.max(maxDistance, Math.hypot(cameraToTarget.getX(), cameraToTarget.getY()));
+        }
+
+        latestEstimate.set(
+            estRoboPose.estimatedPose,
+            estRoboPose.timestampSeconds,
+            targetIds,
+            ambiguitySum / targets.size(),
+            maxDistance
+        );
+        return true;
     }
 
     @Override
@@ -117,30 +117,53 @@ public class CameraRealPhoton extends Camera {
         return camera.getName();
     }
 
-    private void resetLastPoseInfo(VisionPoseEstimate poseEst) {
-        previousPoseEst = poseEst;
-        previousPoseTimer.restart();
+    /**
+     * Wakes the worker whenever photon publishes a frame for this camera.
+     * The listener runs on the NT listener thread so it only unparks, an unpark while the
+     * worker is busy is remembered so a frame arriving mid estimate isn't missed.
+     */
+    @Override
+    public synchronized void startWorker(Runnable onFrame) {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(() -> runWorker(onFrame), camera.getName() + "VisionWorker");
+        worker.setDaemon(true);
+        final Thread wake = worker;
+        final Topic frames = NetworkTableInstance.getDefault()
+            .getTable(PhotonCamera.kTableName)
+            .getSubTable(camera.getName())
+            .getTopic("rawBytes");
+        frames.getInstance().addListener(
+            frames,
+            EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+            event -> LockSupport.unpark(wake)
+        );
+        worker.start();
+    }
+
+    private void runWorker(Runnable onFrame) {
+        final String traceName = camera.getName() + "Frame";
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(WORKER_TIMEOUT_NANOS);
+            Tracer.startTrace(traceName);
+            estimate();
+            if (isPresent) {
+                onFrame.run();
+            }
+            Tracer.endTrace();
+        }
     }
 
     @Override
     public void periodic() {
-
-        if (previousPoseEst == null) {
-            var eval = realEvaluatePose();
-            if (eval.isPresent()) {
-                previousPoseEst = eval.get();
-                previousPoseTimer = new Timer();
-                previousPoseTimer.start();
-            }
-            this.update(
-                eval.map(est -> Pair.of(est, VisionEstimateFault.empty())),
-                camera.isConnected()
-            );
-        } else {
-            this.update(realEvaluatePose()
-                .map(est -> est.withFault(previousPoseEst, previousPoseTimer, this::resetLastPoseInfo)),
-            camera.isConnected()
-            );
+        if (worker == null) {
+            estimate();
         }
     }
+
+    private void estimate() {
+        final boolean present = realEvaluatePose();
+        this.update(present, present ? checkLatestFaults() : null, camera.isConnected());
+    }
 }
@@ -0,0 +1,336 @@
+package com.igknighters.subsystems.vision.camera;
+
+import java.util.List;
+import java.util.Random;
+
+import com.igknighters.Localizer;
+import com.igknighters.constants.FieldConstants;
+import com.igknighters.constants.ConstValues.kSwerve;
+import com.igknighters.constants.ConstValues.kVision;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveSampleKinematics;
+import com.igknighters.util.PoseHistory;
+import com.igknighters.util.geom.PrimitiveSE2;
+import com.igknighters.util.logging.BootupLogger;
+import com.igknighters.util.plumbing.Channel.Receiver;
+import com.igknighters.util.plumbing.Channel.ThreadSafetyMarker;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Quaternion;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * A camera that sees the tags of {@link FieldConstants#APRIL_TAG_FIELD} from the simulated pose of the robot.
+ *
+ * Every frame the tags are projected into the camera, the ones in its field of view, in range
+ * and facing it are used to make an estimate of the simulated pose with noise that grows with
+ * the distance to the tags. Frames come from a HAL {@link Notifier} so they follow a
+ * {@link com.igknighters.util.robots.SteppedSimClock} like the rest of the simulation.
+ */
+public class CameraSim extends Camera {
+    /**
+     * The pose of the simulated robot, integrated from the simulated odometry alone so
+     * the noisy estimates the cameras make never feed back into what they see.
+     * Follows every reset of the localizer since a reset in simulation moves the robot.
+     */
+    public static final class GroundTruth {
+        private final Receiver<Pose2d> resetReceiver;
+        private final SwerveSampleKinematics kinematics = new SwerveSampleKinematics(kSwerve.MODULE_CHASSIS_OFFSETS);
+        private final SwerveDriveSample previous = new SwerveDriveSample();
+        private final SwerveDriveSample current = new SwerveDriveSample();
+        private boolean hasPrevious = false;
+        private final double[] pose = new double[] { 0.0, 0.0, 1.0, 0.0 };
+        private final double[] twist = new double[PrimitiveSE2.TWIST_LENGTH];
+        private final PoseHistory history = new PoseHistory(512);
+
+        /**
+         * @param localizer the localizer the simulated odometry and resets are sent to
+         */
+        public GroundTruth(Localizer localizer) {
+            resetReceiver = localizer.resetChannel().openReceiver(1, ThreadSafetyMarker.CONCURRENT);
+            localizer.swerveDataChannel().addReactor(this::integrate);
+        }
+
+        /** Runs on the odometry thread, the only thread that writes the history */
+        private void integrate(double[] record) {
+            System.arraycopy(record, 0, current.data(), 0, SwerveDriveSample.LENGTH);
+            if (resetReceiver.hasData()) {
+                PrimitiveSE2.fromPose2d(resetReceiver.recv(), pose);
+                history.clear();
+            } else if (hasPrevious) {
+                kinematics.toTwist(previous, current, twist);
+                PrimitiveSE2.exp(
+                    pose[PrimitiveSE2.X], pose[PrimitiveSE2.Y], pose[PrimitiveSE2.COS], pose[PrimitiveSE2.SIN],
+                    twist[PrimitiveSE2.DX], twist[PrimitiveSE2.DY], twist[PrimitiveSE2.DTHETA],
+                    pose
+                );
+            }
+            previous.copyFrom(current);
+            hasPrevious = true;
+            history.record(current.timestamp(), pose);
+        }
+
+        /**
+         * Finds where the simulated robot was at a point in time, safe to call from any thread
+         *
+         * @param timestamp the FPGA timestamp in seconds
+         * @param out the array to write the pose into, laid out as described in {@link PrimitiveSE2}
+         * @param scratch an array of at least {@link PoseHistory#SCRATCH_LENGTH}, one per calling thread
+         * @return false if the simulated odometry hasn't run yet
+         */
+        public boolean poseAt(double timestamp, double[] out, double[] scratch) {
+            return history.poseAt(timestamp, out, scratch);
+        }
+    }
+
+    private static final int[] TAG_IDS;
+    /** The position of every tag followed by the direction it faces, 6 values per tag */
+    private static final double[] TAG_GEOMETRY;
+
+    static {
+        final List<AprilTag> tags = FieldConstants.APRIL_TAG_FIELD.getTags();
+        TAG_IDS = new int[tags.size()];
+        TAG_GEOMETRY = new double[tags.size() * 6];
+        final double[] rotation = new double[9];
+        for (int i = 0; i < tags.size(); i++) {
+            final Pose3d tagPose = tags.get(i).pose;
+            TAG_IDS[i] = tags.get(i).ID;
+            rotationMatrix(tagPose.getRotation().getQuaternion(), rotation);
+            TAG_GEOMETRY[i * 6] = tagPose.getX();
+            TAG_GEOMETRY[i * 6 + 1] = tagPose.getY();
+            TAG_GEOMETRY[i * 6 + 2] = tagPose.getZ();
+            // a tag faces along its own x axis
+            TAG_GEOMETRY[i * 6 + 3] = rotation[0];
+            TAG_GEOMETRY[i * 6 + 4] = rotation[3];
+            TAG_GEOMETRY[i * 6 + 5] = rotation[6];
+        }
+    }
+
+    private final Integer id;
+    private final String cameraName;
+    private final Transform3d cameraPose;
+    private final double framePeriod;
+    private final double latency;
+    private final double translationNoise;
+    private final double rotationNoise;
+
+    /** The robot to camera rotation as a row major matrix */
+    private final double[] cameraRotation = new double[9];
+    private final double minTagFacing = Math.cos(kVision.kSim.MAX_TAG_ANGLE);
+    /** Seeded by the camera ID so runs under a stepped clock repeat exactly */
+    private final Random random;
+
+    private final double[] robotPose = new double[PrimitiveSE2.POSE_LENGTH];
+    private final double[] poseScratch = new double[PoseHistory.SCRATCH_LENGTH];
+
+    private volatile GroundTruth groundTruth = null;
+    private Notifier notifier = null;
+    private double nextFrameTime = 0.0;
+
+    /**
+     * Creates a simulated camera with the noise, latency and frame rate in {@link kVision.kSim}
+     *
+     * @param cameraName The name of the camera
+     * @param id         The ID of the camera
+     * @param cameraPose The pose of the camera relative to the robot
+     */
+    public CameraSim(String cameraName, Integer id, Transform3d cameraPose) {
+        this(
+            cameraName,
+            id,
+            cameraPose,
+            kVision.kSim.FPS,
+            kVision.kSim.LATENCY,
+            kVision.kSim.TRANSLATION_NOISE,
+            kVision.kSim.ROTATION_NOISE
+        );
+    }
+
+    /**
+     * Creates a simulated camera
+     *
+     * @param cameraName       The name of the camera
+     * @param id               The ID of the camera
+     * @param cameraPose       The pose of the camera relative to the robot
+     * @param fps              The frames per second
+     * @param latency          The seconds between a frame being captured and its estimate arriving
+     * @param translationNoise The standard deviation of the translation noise per meter to the tags
+     * @param rotationNoise    The standard deviation of the heading noise in radians per meter to the tags
+     */
+    public CameraSim(
+        String cameraName,
+        Integer id,
+        Transform3d cameraPose,
+        double fps,
+        double latency,
+        double translationNoise,
+        double rotationNoise
+    ) {
+        super(id);
+        this.id = id;
+        this.cameraName = cameraName;
+        this.cameraPose = cameraPose;
+        this.framePeriod = 1.0 / fps;
+        this.latency = latency;
+        this.translationNoise = translationNoise;
+        this.rotationNoise = rotationNoise;
+        this.random = new Random(id);
+        rotationMatrix(cameraPose.getRotation().getQuaternion(), cameraRotation);
+
+        BootupLogger.bootupLog("    " + cameraName + " camera initialized (sim)");
+    }
+
+    /**
+     * Frames have no tags in them until the camera knows where the robot is
+     *
+     * @param groundTruth the pose of the simulated robot
+     */
+    public void setGroundTruth(GroundTruth groundTruth) {
+        this.groundTruth = groundTruth;
+    }
+
+    private static void rotationMatrix(Quaternion q, double[] out) {
+        final double w = q.getW(), x = q.getX(), y = q.getY(), z = q.getZ();
+        out[0] = 1.0 - 2.0 * (y * y + z * z);
+        out[1] = 2.0 * (x * y - w * z);
+        out[2] = 2.0 * (x * z + w * y);
+        out[3] = 2.0 * (x * y + w * z);
+        out[4] = 1.0 - 2.0 * (x * x + z * z);
+        out[5] = 2.0 * (y * z - w * x);
+        out[6] = 2.0 * (x * z - w * y);
+        out[7] = 2.0 * (y * z + w * x);
+        out[8] = 1.0 - 2.0 * (x * x + y * y);
+    }
+
+    /**
+     * Refills {@link #latestEstimate} with what the camera saw at the time of the frame
+     *
+     * @return if any tags were seen
+     */
+    private boolean simEvaluatePose() {
+        final GroundTruth truth = groundTruth;
+        final double captureTime = Timer.getFPGATimestamp() - latency;
+        if (truth == null || !truth.poseAt(captureTime, robotPose, poseScratch)) {
+            return false;
+        }
+        final double robotX = robotPose[PrimitiveSE2.X];
+        final double robotY = robotPose[PrimitiveSE2.Y];
+        final double cos = robotPose[PrimitiveSE2.COS];
+        final double sin = robotPose[PrimitiveSE2.SIN];
+
+        final double camX = robotX + cos * cameraPose.getX() - sin * cameraPose.getY();
+        final double camY = robotY + sin * cameraPose.getX() + cos * cameraPose.getY();
+        final double camZ = cameraPose.getZ();
+        final double[] r = cameraRotation;
+
+        long tagIds = 0L;
+        int tagCount = 0;
+        double distanceSum = 0.0;
+        double maxDistance = 0.0;
+        for (int i = 0; i < TAG_IDS.length; i++) {
+            final int g = i * 6;
+            final double dx = TAG_GEOMETRY[g] - camX;
+            final double dy = TAG_GEOMETRY[g + 1] - camY;
+            final double dz = TAG_GEOMETRY[g + 2] - camZ;
+            final double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (distance > kVision.kSim.MAX_RANGE || distance < 1e-6) {
+                continue;
+            }
+            final double facing = -(dx * TAG_GEOMETRY[g + 3] + dy * TAG_GEOMETRY[g + 4] + dz * TAG_GEOMETRY[g + 5]) / distance;
+            if (facing < minTagFacing) {
+                continue;
+            }
+
+            // field to robot frame, then robot to camera frame
+            final double rx = cos * dx + sin * dy;
+            final double ry = -sin * dx + cos * dy;
+            final double cx = r[0] * rx + r[3] * ry + r[6] * dz;
+            final double cy = r[1] * rx + r[4] * ry + r[7] * dz;
+            final double cz = r[2] * rx + r[5] * ry + r[8] * dz;
+            if (cx <= 0.0
+                    || Math.abs(Math.atan2(cy, cx)) > kVision.kSim.HORIZONTAL_FOV / 2.0
+                    || Math.abs(Math.atan2(cz, cx)) > kVision.kSim.VERTICAL_FOV / 2.0) {
+                continue;
+            }
+
+            tagIds |= VisionPoseEstimate.tagBit(TAG_IDS[i]);
+            tagCount++;
+            distanceSum += distance;
+            maxDistance = Math.max(maxDistance, Math.hypot(cx, cy));
+        }
+        if (tagCount == 0) {
+            return false;
+        }
+
+        final double averageDistance = distanceSum / tagCount;
+        final double noiseScale = averageDistance / Math.sqrt(tagCount);
+        latestEstimate.set(
+            new Pose3d(
+                robotX + random.nextGaussian() * translationNoise * noiseScale,
+                robotY + random.nextGaussian() * translationNoise * noiseScale,
+                0.0,
+                new Rotation3d(0.0, 0.0, Math.atan2(sin, cos) + random.nextGaussian() * rotationNoise * noiseScale)
+            ),
+            captureTime,
+            tagIds,
+            kVision.kSim.AMBIGUITY_PER_METER * averageDistance,
+            maxDistance
+        );
+        return true;
+    }
+
+    private void frame() {
+        final boolean present = simEvaluatePose();
+        this.update(present, present ? checkLatestFaults() : null, true);
+    }
+
+    @Override
+    public synchronized void startWorker(Runnable onFrame) {
+        if (notifier != null) {
+            return;
+        }
+        notifier = new Notifier(() -> {
+            frame();
+            if (isPresent) {
+                onFrame.run();
+            }
+        });
+        notifier.setName(cameraName + "Sim");
+        notifier.startPeriodic(framePeriod);
+    }
+
+    @Override
+    public void periodic() {
+        if (notifier != null) {
+            return;
+        }
+        final double now = Timer.getFPGATimestamp();
+        if (now >= nextFrameTime) {
+            nextFrameTime = now + framePeriod;
+            frame();
+        } else {
+            // the last frame was already handed off
+            this.update(false, null, true);
+        }
+    }
+
+    @Override
+    public Transform3d getRobotToCameraTransform3d() {
+        return cameraPose;
+    }
+
+    @Override
+    public Integer getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return cameraName;
+    }
+}
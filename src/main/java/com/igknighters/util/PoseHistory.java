@@ -0,0 +1,254 @@
+package com.igknighters.util;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.igknighters.util.geom.PrimitiveSE2;
+
+import edu.wpi.first.math.geometry.Pose2d;
+
+/**
+ * A fixed size history of timestamped poses that can be queried for the pose at any time.
+ *
+ * Written by a single thread and read lock-free from any thread. Every slot has a version that is odd
+ * while the slot is being written and goes up by two with every write, along with the sequence of the pose
+ * it holds. Readers retry if the version changes under them, so poses can be rewritten in place
+ * with {@link #rewriteFrom(double, PoseSource)} as well as appended.
+ */
+public class PoseHistory {
+    /**
+     * Supplies corrected poses for {@link #rewriteFrom(double, PoseSource)}
+     */
+    @FunctionalInterface
+    public interface PoseSource {
+        /**
+         * @param timestamp the time of a recorded pose in seconds
+         * @param out the array to write the pose at that time into, laid out as described in {@link PrimitiveSE2}
+         */
+        void poseAt(double timestamp, double[] out);
+    }
+
+    /** The length of the scratch array {@link #poseAt(double, double[], double[])} needs */
+    public static final int SCRATCH_LENGTH = 10;
+    private static final int BEFORE = 0;
+    private static final int AFTER = 5;
+
+    private final int capacity;
+    private final int mask;
+
+    private final double[] timestamps;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] coss;
+    private final double[] sins;
+    /** the sequence of the pose in each slot, guarded by the slot's version */
+    private final long[] slotSequences;
+    private final AtomicLongArray slotVersions;
+    /** the sequence the next pose will be given, only written by the writer */
+    private final AtomicLong head = new AtomicLong();
+    /** the oldest sequence that can still be read, moved past everything on {@link #clear()} */
+    private final AtomicLong oldest = new AtomicLong();
+    /** scratch for {@link #rewriteFrom(double, PoseSource)}, only touched by the writer */
+    private final double[] rewritePose = new double[PrimitiveSE2.POSE_LENGTH];
+
+    /**
+     * Creates a new history
+     *
+     * @param capacity the amount of poses to keep, is rounded up to a power of two
+     */
+    public PoseHistory(int capacity) {
+        if (capacity <= 1) {
+            throw new IllegalArgumentException("capacity must be greater than one");
+        }
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.timestamps = new double[this.capacity];
+        this.xs = new double[this.capacity];
+        this.ys = new double[this.capacity];
+        this.coss = new double[this.capacity];
+        this.sins = new double[this.capacity];
+        this.slotSequences = new long[this.capacity];
+        // no slot holds a pose until it is first written
+        Arrays.fill(this.slotSequences, -1L);
+        this.slotVersions = new AtomicLongArray(this.capacity);
+    }
+
+    /**
+     * Records a pose, timestamps must not decrease between calls.
+     * Only one thread may record.
+     *
+     * @param timestamp the time of the pose in seconds
+     * @param pose the pose laid out as described in {@link PrimitiveSE2}
+     */
+    public void record(double timestamp, double[] pose) {
+        final long seq = head.get();
+        write(seq, timestamp, pose);
+        head.set(seq + 1);
+    }
+
+    private void write(long seq, double timestamp, double[] pose) {
+        final int slot = (int) (seq & mask);
+        final long version = slotVersions.get(slot);
+        slotVersions.set(slot, version + 1);
+        // the writes must not be reordered before the slot is marked as being written
+        VarHandle.releaseFence();
+        slotSequences[slot] = seq;
+        timestamps[slot] = timestamp;
+        xs[slot] = pose[PrimitiveSE2.X];
+        ys[slot] = pose[PrimitiveSE2.Y];
+        coss[slot] = pose[PrimitiveSE2.COS];
+        sins[slot] = pose[PrimitiveSE2.SIN];
+        slotVersions.set(slot, version + 2);
+    }
+
+    /**
+     * Replaces every recorded pose at or after a time with the pose the source gives for its timestamp,
+     * for when samples were added to an estimate behind poses that were already recorded.
+     * Only the recording thread may call this.
+     *
+     * @param timestamp the time to rewrite from in seconds
+     * @param source gives the corrected pose at each recorded timestamp
+     */
+    public void rewriteFrom(double timestamp, PoseSource source) {
+        final long h = head.get();
+        final long low = Math.max(h - capacity, oldest.get());
+        long seq = h;
+        // only the writer writes so its own slots can be read without checking versions
+        while (seq > low && timestamps[(int) ((seq - 1) & mask)] >= timestamp) {
+            seq--;
+        }
+        for (; seq < h; seq++) {
+            final double recorded = timestamps[(int) (seq & mask)];
+            source.poseAt(recorded, rewritePose);
+            write(seq, recorded, rewritePose);
+        }
+    }
+
+    /**
+     * Forgets every recorded pose, only the recording thread may call this
+     */
+    public void clear() {
+        oldest.set(head.get());
+    }
+
+    /**
+     * Reads the pose with sequence {@code seq} into {@code out} at {@code offset}
+     * as {@code [timestamp, x, y, cos, sin]}
+     *
+     * @return false if the slot was overwritten or is being written
+     */
+    private boolean read(long seq, double[] out, int offset) {
+        final int slot = (int) (seq & mask);
+        final long version = slotVersions.get(slot);
+        if ((version & 1L) != 0L || slotSequences[slot] != seq) {
+            return false;
+        }
+        out[offset] = timestamps[slot];
+        out[offset + 1] = xs[slot];
+        out[offset + 2] = ys[slot];
+        out[offset + 3] = coss[slot];
+        out[offset + 4] = sins[slot];
+        // the reads must complete before the version is re-checked
+        VarHandle.acquireFence();
+        return slotVersions.get(slot) == version;
+    }
+
+    /**
+     * Finds the pose at a time, interpolating between the two recorded poses around it.
+     * Times before the oldest or after the newest recorded pose are clamped to that pose.
+     *
+     * @param timestamp the time to get the pose at in seconds
+     * @return the pose at the time or null if nothing has been recorded
+     */
+    public Pose2d poseAt(double timestamp) {
+        final double[] pose = new double[PrimitiveSE2.POSE_LENGTH];
+        if (!poseAt(timestamp, pose, new double[SCRATCH_LENGTH])) {
+            return null;
+        }
+        return PrimitiveSE2.toPose2d(pose[PrimitiveSE2.X], pose[PrimitiveSE2.Y], pose[PrimitiveSE2.COS], pose[PrimitiveSE2.SIN]);
+    }
+
+    /**
+     * Finds the pose at a time without allocating, see {@link #poseAt(double)}.
+     *
+     * @param timestamp the time to get the pose at in seconds
+     * @param out the array to write the pose into, laid out as described in {@link PrimitiveSE2}
+     * @param scratch an array of at least {@link #SCRATCH_LENGTH} to work in,
+     *     each thread querying at once needs its own
+     * @return false if nothing has been recorded, {@code out} is left untouched then
+     */
+    public boolean poseAt(double timestamp, double[] out, double[] scratch) {
+        while (true) {
+            final long h = head.get();
+            long low = Math.max(h - capacity + 1, oldest.get());
+            if (h == low || !read(h - 1, scratch, AFTER)) {
+                if (h == head.get()) {
+                    return false;
+                }
+                continue;
+            }
+            if (timestamp >= scratch[AFTER]) {
+                copyPose(scratch, AFTER, out);
+                return true;
+            }
+
+            // find the newest pose at or before the timestamp, a slot that can't be read
+            // has been overwritten so everything older than it is gone too
+            long high = h - 1;
+            boolean lapped = false;
+            while (low < high) {
+                final long mid = (low + high + 1) >>> 1;
+                if (!read(mid, scratch, BEFORE)) {
+                    lapped = true;
+                    break;
+                }
+                if (scratch[BEFORE] <= timestamp) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (lapped) {
+                continue;
+            }
+            if (!read(low, scratch, BEFORE)) {
+                continue;
+            }
+            if (timestamp <= scratch[BEFORE]) {
+                copyPose(scratch, BEFORE, out);
+                return true;
+            }
+            if (!read(low + 1, scratch, AFTER)) {
+                continue;
+            }
+            interpolate(scratch, timestamp, out);
+            return true;
+        }
+    }
+
+    private static void copyPose(double[] scratch, int offset, double[] out) {
+        out[PrimitiveSE2.X] = scratch[offset + 1];
+        out[PrimitiveSE2.Y] = scratch[offset + 2];
+        out[PrimitiveSE2.COS] = scratch[offset + 3];
+        out[PrimitiveSE2.SIN] = scratch[offset + 4];
+    }
+
+    private static void interpolate(double[] scratch, double timestamp, double[] out) {
+        final double span = scratch[AFTER] - scratch[BEFORE];
+        final double t = span <= 0.0 ? 1.0 : (timestamp - scratch[BEFORE]) / span;
+        final double x = scratch[BEFORE + 1], y = scratch[BEFORE + 2];
+        final double cos = scratch[BEFORE + 3], sin = scratch[BEFORE + 4];
+        // the twist is only needed until the exp, so it borrows the output
+        PrimitiveSE2.log(
+            x, y, cos, sin,
+            scratch[AFTER + 1], scratch[AFTER + 2], scratch[AFTER + 3], scratch[AFTER + 4],
+            out
+        );
+        final double dx = out[PrimitiveSE2.DX] * t;
+        final double dy = out[PrimitiveSE2.DY] * t;
+        final double dtheta = out[PrimitiveSE2.DTHETA] * t;
+        PrimitiveSE2.exp(x, y, cos, sin, dx, dy, dtheta, out);
+    }
+}
@@ -1,122 +1,294 @@
 package com.igknighters.util;
 
-import java.util.LinkedList;
-import java.util.OptionalInt;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveSampleKinematics;
+import com.igknighters.util.geom.PrimitiveSE2;
 
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Twist2d;
-import edu.wpi.first.math.kinematics.Kinematics;
-import edu.wpi.first.math.kinematics.WheelPositions;
-import edu.wpi.first.wpilibj.Timer;
 
 public class TwistyPoseEst {
     private static final double kMaxSampleAge = 0.3;
+    /**
+     * The most samples held at once, must be a power of two.
+     * 0.3 seconds of 250hz odometry is 75 samples, the rest is headroom for vision and jitter.
+     * When full the oldest sample is folded into the root regardless of age.
+     */
+    private static final int kCapacity = 256;
+    private static final int kMask = kCapacity - 1;
+
+    /** The samples stored as a struct-of-arrays ring, logical index 0 is the oldest sample */
+    private final double[] dx = new double[kCapacity];
+    private final double[] dy = new double[kCapacity];
+    private final double[] dtheta = new double[kCapacity];
+    private final double[] timestamps = new double[kCapacity];
+    /** The pose after applying every sample up to and including the one in the same slot */
+    private final double[] prefixX = new double[kCapacity];
+    private final double[] prefixY = new double[kCapacity];
+    private final double[] prefixCos = new double[kCapacity];
+    private final double[] prefixSin = new double[kCapacity];
+    /** The physical index of the oldest sample */
+    private int first = 0;
+    private int size = 0;
+    /**
+     * The amount of samples, from the oldest, whose prefix pose is up to date.
+     * Inserting only lowers this, the prefix poses are recomposed lazily when a pose is read
+     * so a batch of out of order samples costs a single recomposition.
+     */
+    private int composed = 0;
 
-    private final class TimestampedTwist2d extends Twist2d {
-        public final double timestamp;
+    /** The pose before the oldest sample, see {@link PrimitiveSE2} for the layout */
+    private final double[] rootPose = new double[PrimitiveSE2.POSE_LENGTH];
 
-        public TimestampedTwist2d(double dx, double dy, double dtheta, double timestamp) {
-            super(dx, dy, dtheta);
-            this.timestamp = timestamp;
-        }
-    }
+    /** Scratch space for the math in this class */
+    private final double[] scratchPose = new double[PrimitiveSE2.POSE_LENGTH];
+    private final double[] scratchTwist = new double[PrimitiveSE2.TWIST_LENGTH];
+
+    /** The estimated pose materialized by the last {@link #getEstimatedPose()}, null once stale */
+    private Pose2d estimatedPose = null;
 
-    private final LinkedList<TimestampedTwist2d> samples = new LinkedList<>();
-    private Pose2d rootPose = new Pose2d();
-    private WheelPositions<?> prevWheelPositions;
+    /** The previous drive sample, copied in place so the caller can reuse theirs */
+    private final SwerveDriveSample prevDriveSample = new SwerveDriveSample();
+    private boolean hasPrevDriveSample = false;
+    /** The robot relative velocity between the last two drive samples, laid out as a twist */
+    private final double[] driveVelocity = new double[PrimitiveSE2.TWIST_LENGTH];
+
+    public TwistyPoseEst() {
+        rootPose[PrimitiveSE2.COS] = 1.0;
+    }
 
     public void resetPose(Pose2d pose) {
-        rootPose = pose;
-        samples.clear();
+        PrimitiveSE2.fromPose2d(pose, rootPose);
+        first = 0;
+        size = 0;
+        composed = 0;
+        estimatedPose = pose;
     }
 
-    private OptionalInt indexForTimestamp(double timestamp) {
-        if (samples.getFirst().timestamp > timestamp) {
-            return OptionalInt.empty();
-        }
-        if (samples.getLast().timestamp < timestamp) {
-            return OptionalInt.of(samples.size() - 1);
-        }
+    private int physical(int index) {
+        return (first + index) & kMask;
+    }
+
+    /**
+     * @return the amount of samples with a timestamp at or before {@code timestamp},
+     *     this is where a sample at {@code timestamp} should be inserted
+     */
+    private int insertionIndex(double timestamp) {
         int low = 0;
-        int high = samples.size() - 1;
-        while (low <= high) {
-            int mid = (low + high) / 2;
-            double midTime = samples.get(mid).timestamp;
-            if (midTime < timestamp) {
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[physical(mid)] <= timestamp) {
                 low = mid + 1;
-            } else if (midTime > timestamp) {
-                high = mid - 1;
             } else {
-                return OptionalInt.of(mid);
+                high = mid;
             }
         }
-        return OptionalInt.of(low - 1);
+        return low;
     }
 
-    private Pose2d poseAtIndex(int index) {
-        // switching this over to primitive math would be a good idea
-        Pose2d pose = rootPose;
-        for (int i = 0; i < index; i++) {
-            pose = pose.exp(samples.get(i));
+    /**
+     * Copies the pose before the sample at {@code index} is applied into {@code out},
+     * {@code size} gives the estimated pose
+     */
+    private void poseAtIndex(int index, double[] out) {
+        composeTo(index);
+        if (index == 0) {
+            System.arraycopy(rootPose, 0, out, 0, PrimitiveSE2.POSE_LENGTH);
+        } else {
+            int slot = physical(index - 1);
+            out[PrimitiveSE2.X] = prefixX[slot];
+            out[PrimitiveSE2.Y] = prefixY[slot];
+            out[PrimitiveSE2.COS] = prefixCos[slot];
+            out[PrimitiveSE2.SIN] = prefixSin[slot];
+        }
+    }
+
+    /**
+     * Brings the cached prefix poses of every sample before {@code index} up to date
+     */
+    private void composeTo(int index) {
+        if (composed >= index) {
+            return;
         }
-        return pose;
+        final double[] pose = scratchPose;
+        poseAtIndex(composed, pose);
+        for (int i = composed; i < index; i++) {
+            int slot = physical(i);
+            PrimitiveSE2.exp(
+                pose[PrimitiveSE2.X], pose[PrimitiveSE2.Y], pose[PrimitiveSE2.COS], pose[PrimitiveSE2.SIN],
+                dx[slot], dy[slot], dtheta[slot],
+                pose
+            );
+            prefixX[slot] = pose[PrimitiveSE2.X];
+            prefixY[slot] = pose[PrimitiveSE2.Y];
+            prefixCos[slot] = pose[PrimitiveSE2.COS];
+            prefixSin[slot] = pose[PrimitiveSE2.SIN];
+        }
+        composed = index;
+    }
+
+    /**
+     * Folds the oldest sample into the root pose
+     */
+    private void popFirst() {
+        composeTo(1);
+        rootPose[PrimitiveSE2.X] = prefixX[first];
+        rootPose[PrimitiveSE2.Y] = prefixY[first];
+        rootPose[PrimitiveSE2.COS] = prefixCos[first];
+        rootPose[PrimitiveSE2.SIN] = prefixSin[first];
+        first = (first + 1) & kMask;
+        size--;
+        composed--;
     }
 
+    /**
+     * Inserts a sample at a logical index, shifting every newer sample back by one
+     * and invalidating the prefix poses from the inserted sample forward
+     */
+    private void insert(int index, double sampleDx, double sampleDy, double sampleDtheta, double timestamp) {
+        if (size == kCapacity) {
+            popFirst();
+            index = Math.max(index - 1, 0);
+        }
+        for (int i = size; i > index; i--) {
+            int to = physical(i);
+            int from = physical(i - 1);
+            dx[to] = dx[from];
+            dy[to] = dy[from];
+            dtheta[to] = dtheta[from];
+            timestamps[to] = timestamps[from];
+        }
+        int slot = physical(index);
+        dx[slot] = sampleDx;
+        dy[slot] = sampleDy;
+        dtheta[slot] = sampleDtheta;
+        timestamps[slot] = timestamp;
+        size++;
+        composed = Math.min(composed, index);
+        estimatedPose = null;
+    }
+
+    /**
+     * Folds every sample older than {@link #kMaxSampleAge} relative to the newest sample into the root,
+     * using sample time instead of the FPGA clock keeps replayed logs deterministic
+     */
     private void pruneToRoot() {
-        while (!samples.isEmpty() && samples.getFirst().timestamp < Timer.getFPGATimestamp() - kMaxSampleAge) {
-            rootPose = rootPose.exp(samples.removeFirst());
+        if (size == 0) {
+            return;
+        }
+        double cutoff = timestamps[physical(size - 1)] - kMaxSampleAge;
+        while (size > 0 && timestamps[first] < cutoff) {
+            popFirst();
         }
     }
 
     /**
      * Adds a sample to the estimator
-     * 
+     *
      * @param pose the pose of the robot at the time of the sample
      * @param timestamp the timestamp of the sample
      * @param weight the weight of the sample (0.0 to 1.0)
+     * @return false if the sample was older than every sample held and was ignored
      */
-    public void addVisionSample(Pose2d pose, double timestamp, double weight) {
-        var opt = indexForTimestamp(timestamp);
-        if (opt.isEmpty()) {
+    public boolean addVisionSample(Pose2d pose, double timestamp, double weight) {
+        int index = insertionIndex(timestamp);
+        if (index == 0) {
             // timestamp is before the first sample
-            return;
+            return false;
         }
-        int index = opt.getAsInt();
 
-        Pose2d lastPose = poseAtIndex(index);
-        Twist2d twist = lastPose.log(pose);
-        samples.add(
+        final double[] lastPose = scratchPose;
+        poseAtIndex(index, lastPose);
+        PrimitiveSE2.log(
+            lastPose[PrimitiveSE2.X], lastPose[PrimitiveSE2.Y], lastPose[PrimitiveSE2.COS], lastPose[PrimitiveSE2.SIN],
+            pose.getX(), pose.getY(), pose.getRotation().getCos(), pose.getRotation().getSin(),
+            scratchTwist
+        );
+        insert(
             index,
-            new TimestampedTwist2d(
-                twist.dx * weight,
-                twist.dy * weight,
-                twist.dtheta * weight,
-                timestamp
-            ));
+            scratchTwist[PrimitiveSE2.DX] * weight,
+            scratchTwist[PrimitiveSE2.DY] * weight,
+            scratchTwist[PrimitiveSE2.DTHETA] * weight,
+            timestamp
+        );
         pruneToRoot();
+        return true;
     }
 
-    @SuppressWarnings("unchecked")
-    public <T extends WheelPositions<T>> void addDriveSample(Kinematics<?, T> kinematics, T wheelPositions, double timestamp, double weight) {
-        if (prevWheelPositions == null) {
-            prevWheelPositions = wheelPositions;
+    /**
+     * Adds a drive sample to the estimator, the sample is read in place and can be reused
+     * by the caller as soon as this returns.
+     *
+     * @param kinematics the kinematics of the drivetrain
+     * @param sample the drive sample
+     * @param weight the weight of the sample (0.0 to 1.0)
+     */
+    public void addDriveSample(SwerveSampleKinematics kinematics, SwerveDriveSample sample, double weight) {
+        if (!hasPrevDriveSample) {
+            prevDriveSample.copyFrom(sample);
+            hasPrevDriveSample = true;
             return;
         }
-        Twist2d twist = kinematics.toTwist2d(
-            (T) prevWheelPositions,
-            wheelPositions
+        kinematics.toTwist(prevDriveSample, sample, scratchTwist);
+        final double dt = sample.timestamp() - prevDriveSample.timestamp();
+        if (dt > 0.0) {
+            driveVelocity[PrimitiveSE2.DX] = scratchTwist[PrimitiveSE2.DX] / dt;
+            driveVelocity[PrimitiveSE2.DY] = scratchTwist[PrimitiveSE2.DY] / dt;
+            driveVelocity[PrimitiveSE2.DTHETA] = scratchTwist[PrimitiveSE2.DTHETA] / dt;
+        }
+        insert(
+            insertionIndex(sample.timestamp()),
+            scratchTwist[PrimitiveSE2.DX] * weight,
+            scratchTwist[PrimitiveSE2.DY] * weight,
+            scratchTwist[PrimitiveSE2.DTHETA] * weight,
+            sample.timestamp()
         );
-        samples.add(new TimestampedTwist2d(
-            twist.dx * weight,
-            twist.dy * weight,
-            twist.dtheta * weight,
-            timestamp
-        ));
-        prevWheelPositions = wheelPositions;
+        prevDriveSample.copyFrom(sample);
         pruneToRoot();
     }
 
+    /**
+     * Copies the estimated pose into {@code out} without materializing a {@link Pose2d}
+     *
+     * @param out the pose to write to, see {@link PrimitiveSE2} for the layout
+     */
+    public void getEstimatedPose(double[] out) {
+        poseAtIndex(size, out);
+    }
+
+    /**
+     * Copies the estimated pose after every sample at or before a time into {@code out},
+     * times before the oldest sample held give the pose before it
+     *
+     * @param timestamp the time to get the pose at
+     * @param out the pose to write to, see {@link PrimitiveSE2} for the layout
+     */
+    public void getPoseAt(double timestamp, double[] out) {
+        poseAtIndex(insertionIndex(timestamp), out);
+    }
+
+    /**
+     * Copies the robot relative velocity measured between the last two drive samples into {@code out}
+     *
+     * @param out the velocity to write to, laid out like a twist in {@link PrimitiveSE2}
+     */
+    public void getDriveVelocity(double[] out) {
+        System.arraycopy(driveVelocity, 0, out, 0, PrimitiveSE2.TWIST_LENGTH);
+    }
+
+    /**
+     * The returned pose is cached until the next sample changes it.
+     *
+     * @return the estimated pose
+     */
     public Pose2d getEstimatedPose() {
-        return poseAtIndex(samples.size());
+        if (estimatedPose == null) {
+            final double[] pose = scratchPose;
+            poseAtIndex(size, pose);
+            estimatedPose = PrimitiveSE2.toPose2d(
+                pose[PrimitiveSE2.X], pose[PrimitiveSE2.Y], pose[PrimitiveSE2.COS], pose[PrimitiveSE2.SIN]
+            );
+        }
+        return estimatedPose;
     }
 }
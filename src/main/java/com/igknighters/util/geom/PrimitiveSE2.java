@@ -0,0 +1,145 @@
+package com.igknighters.util.geom;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Allocation free SE(2) math on primitive doubles.
+ *
+ * Poses are passed as {@code x, y, cos, sin} and written into caller owned arrays laid out as
+ * {@code [X, Y, COS, SIN]}, twists are written as {@code [DX, DY, DTHETA]}.
+ * Keeping the rotation as a cos/sin pair avoids any trig when composing, the angle is only
+ * recovered when a {@link Pose2d} is materialized.
+ *
+ * The formulas mirror {@link Pose2d#exp} and {@link Pose2d#log} so results match WPILib
+ * to within floating point rounding.
+ */
+public final class PrimitiveSE2 {
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int COS = 2;
+    public static final int SIN = 3;
+    /** The amount of doubles in a pose */
+    public static final int POSE_LENGTH = 4;
+
+    public static final int DX = 0;
+    public static final int DY = 1;
+    public static final int DTHETA = 2;
+    /** The amount of doubles in a twist */
+    public static final int TWIST_LENGTH = 3;
+
+    private PrimitiveSE2() {}
+
+    /**
+     * Applies a twist to a pose, equivalent to {@link Pose2d#exp}
+     *
+     * @param out the pose to write the result to, can be the same array the input pose was read from
+     */
+    public static void exp(
+        double x, double y, double cos, double sin,
+        double dx, double dy, double dtheta,
+        double[] out
+    ) {
+        final double sinTheta = Math.sin(dtheta);
+        final double cosTheta = Math.cos(dtheta);
+        final double s;
+        final double c;
+        if (Math.abs(dtheta) < 1E-9) {
+            s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+            c = 0.5 * dtheta;
+        } else {
+            s = sinTheta / dtheta;
+            c = (1 - cosTheta) / dtheta;
+        }
+        compose(
+            x, y, cos, sin,
+            dx * s - dy * c, dx * c + dy * s, cosTheta, sinTheta,
+            out
+        );
+    }
+
+    /**
+     * Finds the twist that maps the start pose onto the end pose, equivalent to {@link Pose2d#log}
+     *
+     * @param out the twist to write the result to
+     */
+    public static void log(
+        double x0, double y0, double cos0, double sin0,
+        double x1, double y1, double cos1, double sin1,
+        double[] out
+    ) {
+        // the end pose relative to the start pose
+        final double tx = x1 - x0;
+        final double ty = y1 - y0;
+        final double relX = tx * cos0 + ty * sin0;
+        final double relY = -tx * sin0 + ty * cos0;
+        double relCos = cos1 * cos0 + sin1 * sin0;
+        double relSin = sin1 * cos0 - cos1 * sin0;
+        final double magnitude = Math.sqrt(relCos * relCos + relSin * relSin);
+        if (magnitude > 1E-6) {
+            relCos /= magnitude;
+            relSin /= magnitude;
+        }
+
+        final double dtheta = Math.atan2(relSin, relCos);
+        final double halfDtheta = dtheta / 2.0;
+        final double cosMinusOne = relCos - 1;
+        final double halfThetaByTanOfHalfDtheta;
+        if (Math.abs(cosMinusOne) < 1E-9) {
+            halfThetaByTanOfHalfDtheta = 1.0 - 1.0 / 12.0 * dtheta * dtheta;
+        } else {
+            halfThetaByTanOfHalfDtheta = -(halfDtheta * relSin) / cosMinusOne;
+        }
+
+        // rotating by the unnormalized (halfThetaByTanOfHalfDtheta, -halfDtheta) also applies its magnitude
+        out[DX] = relX * halfThetaByTanOfHalfDtheta + relY * halfDtheta;
+        out[DY] = -relX * halfDtheta + relY * halfThetaByTanOfHalfDtheta;
+        out[DTHETA] = dtheta;
+    }
+
+    /**
+     * Transforms a pose by a transform expressed in the pose's frame,
+     * equivalent to {@link Pose2d#transformBy}
+     *
+     * @param out the pose to write the result to, can be the same array the input pose was read from
+     */
+    public static void compose(
+        double x, double y, double cos, double sin,
+        double tx, double ty, double tcos, double tsin,
+        double[] out
+    ) {
+        double newCos = tcos * cos - tsin * sin;
+        double newSin = tcos * sin + tsin * cos;
+        final double magnitude = Math.sqrt(newCos * newCos + newSin * newSin);
+        if (magnitude > 1E-6) {
+            newCos /= magnitude;
+            newSin /= magnitude;
+        }
+        out[X] = x + tx * cos - ty * sin;
+        out[Y] = y + tx * sin + ty * cos;
+        out[COS] = newCos;
+        out[SIN] = newSin;
+    }
+
+    /**
+     * Writes a {@link Pose2d} into a primitive pose
+     *
+     * @param pose the pose to read
+     * @param out the pose to write to
+     */
+    public static void fromPose2d(Pose2d pose, double[] out) {
+        out[X] = pose.getX();
+        out[Y] = pose.getY();
+        out[COS] = pose.getRotation().getCos();
+        out[SIN] = pose.getRotation().getSin();
+    }
+
+    /**
+     * Materializes a primitive pose, this is the only place an angle is recovered
+     *
+     * @return a new pose
+     */
+    public static Pose2d toPose2d(double x, double y, double cos, double sin) {
+        return new Pose2d(x, y, new Rotation2d(cos, sin));
+    }
+}
@@ -5,11 +5,11 @@ import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.RobotController;
-import edu.wpi.first.wpilibj.Timer;
 
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -42,46 +42,53 @@ import java.util.function.Supplier;
  * </code></pre>
  */
 public class Tracer {
-  private static final class TraceStartData {
-    private double m_startTime;
-    private double m_startGCTotalTime;
-
-    private void set(double startTime, double startGCTotalTime) {
-      this.m_startTime = startTime;
-      this.m_startGCTotalTime = startGCTotalTime;
-    }
-  }
-
   /**
    * All of the tracers persistent state in a single object to be stored in a {@link ThreadLocal}.
+   *
+   * <p>Every unique path of trace names is a node in a tree with an int ID, found by walking the
+   * children of the node on top of the stack. Nodes are only created the first time a path is
+   * traced, after that starting and ending a trace only pushes and pops an ID and writes to the
+   * primitive arrays indexed by it.
    */
   @SuppressWarnings("PMD.RedundantFieldInitializer")
   private static final class TracerState {
+    private static final int ROOT = 0;
+    private static final int NO_NODE = -1;
+
     private final NetworkTable m_rootTable;
 
-    /**
-     * The stack of traces, every startTrace will add to this stack and every endTrace will remove
-     * from this stack.
-     */
-    private final ArrayList<String> m_traceStack = new ArrayList<>();
+    /** The trace name of every node. */
+    private String[] m_names = new String[32];
 
-    /**
-     * ideally we only need `traceStack` but in the interest of memory optimization and string
-     * concatenation speed we store the history of the stack to reuse the stack names.
-     */
-    private final ArrayList<String> m_traceStackHistory = new ArrayList<>();
+    /** The full path of every node, built once when the node is created. */
+    private String[] m_paths = new String[32];
+
+    /** The first child of every node, children are linked through {@link #m_nextSibling}. */
+    private int[] m_firstChild = new int[32];
+
+    private int[] m_nextSibling = new int[32];
+
+    /** The publisher of every node, created the first cycle the node has a time. */
+    private DoublePublisher[] m_publishers = new DoublePublisher[32];
+
+    /** The {@link System#nanoTime()} every node was last started at. */
+    private long[] m_startTimes = new long[32];
 
-    /** The time of each trace, the key is the trace name, modified every endTrace. */
-    private final HashMap<String, Double> m_traceTimes = new HashMap<>();
+    /** The gc time every node was last started at. */
+    private double[] m_startGCTimes = new double[32];
+
+    /** The time of every node in milliseconds this cycle, NaN if it was not traced. */
+    private double[] m_traceTimes = new double[32];
+
+    private int m_nodeCount = 1;
 
     /**
-     * The start time of each trace and the gc time at the start of the trace, the key is the trace
-     * name, modified every startTrace and endTrace.
+     * The stack of trace nodes, every startTrace will add to this stack and every endTrace will
+     * remove from this stack.
      */
-    private final HashMap<String, TraceStartData> m_traceStartTimes = new HashMap<>();
+    private int[] m_traceStack = new int[16];
 
-    /** the publishers for each trace, the key is the trace name, modified every endCycle. */
-    private final HashMap<String, DoublePublisher> m_publishers = new HashMap<>();
+    private int m_traceDepth = 0;
 
     /*
      * If the cycle is poisoned, it will warn the user
@@ -89,7 +96,7 @@ public class Tracer {
      */
     boolean m_cyclePoisoned = false;
 
-    /** If the tracer is disabled, it will not publish any data or do any string manipulation. */
+    /** If the tracer is disabled, it will not publish any data or walk the trace tree. */
     boolean m_disabled = false;
 
     /**
@@ -124,43 +131,72 @@ public class Tracer {
         this.m_rootTable = NetworkTableInstance.getDefault().getTable("Tracer").getSubTable(name);
       }
       this.m_gcTimeEntry = m_rootTable.getDoubleTopic("GCTime").publish();
+      this.m_firstChild[ROOT] = NO_NODE;
+    }
+
+    private int findChild(int parent, String name) {
+      for (int child = m_firstChild[parent]; child != NO_NODE; child = m_nextSibling[child]) {
+        final String childName = m_names[child];
+        // names are usually literals so the identity check is almost always the one that hits
+        if (childName == name || childName.equals(name)) {
+          return child;
+        }
+      }
+      return addChild(parent, name);
+    }
+
+    private int addChild(int parent, String name) {
+      if (m_nodeCount == m_names.length) {
+        final int capacity = m_names.length * 2;
+        m_names = Arrays.copyOf(m_names, capacity);
+        m_paths = Arrays.copyOf(m_paths, capacity);
+        m_firstChild = Arrays.copyOf(m_firstChild, capacity);
+        m_nextSibling = Arrays.copyOf(m_nextSibling, capacity);
+        m_publishers = Arrays.copyOf(m_publishers, capacity);
+        m_startTimes = Arrays.copyOf(m_startTimes, capacity);
+        m_startGCTimes = Arrays.copyOf(m_startGCTimes, capacity);
+        m_traceTimes = Arrays.copyOf(m_traceTimes, capacity);
+      }
+      final int node = m_nodeCount++;
+      m_names[node] = name;
+      m_paths[node] = parent == ROOT ? name : m_paths[parent] + "/" + name;
+      m_firstChild[node] = NO_NODE;
+      m_nextSibling[node] = m_firstChild[parent];
+      m_firstChild[parent] = node;
+      m_traceTimes[node] = Double.NaN;
+      return node;
     }
 
-    private String appendTraceStack(String trace) {
+    private int pushTrace(String trace) {
       m_stackSize++;
       if (m_disabled) {
-        return "";
+        return NO_NODE;
       }
-      m_traceStack.add(trace);
-      StringBuilder sb = new StringBuilder();
-      for (int i = 0; i < m_traceStack.size(); i++) {
-        sb.append(m_traceStack.get(i));
-        if (i < m_traceStack.size() - 1) {
-          sb.append('/');
-        }
+      final int parent = m_traceDepth == 0 ? ROOT : m_traceStack[m_traceDepth - 1];
+      final int node = findChild(parent, trace);
+      if (m_traceDepth == m_traceStack.length) {
+        m_traceStack = Arrays.copyOf(m_traceStack, m_traceStack.length * 2);
       }
-      String str = sb.toString();
-      m_traceStackHistory.add(str);
-      return str;
+      m_traceStack[m_traceDepth++] = node;
+      return node;
     }
 
-    private String popTraceStack() {
+    private int popTrace() {
       m_stackSize = Math.max(0, m_stackSize - 1);
       if (m_disabled) {
-        return "";
+        return NO_NODE;
       }
-      if (m_traceStack.isEmpty() || m_traceStackHistory.isEmpty() || m_cyclePoisoned) {
+      if (m_traceDepth == 0 || m_cyclePoisoned) {
         m_cyclePoisoned = true;
-        return "";
+        return NO_NODE;
       }
-      m_traceStack.remove(m_traceStack.size() - 1);
-      return m_traceStackHistory.remove(m_traceStackHistory.size() - 1);
+      return m_traceStack[--m_traceDepth];
     }
 
     private double totalGCTime() {
       double gcTime = 0;
-      for (GarbageCollectorMXBean gc : m_gcs) {
-        gcTime += gc.getCollectionTime();
+      for (int i = 0; i < m_gcs.size(); i++) {
+        gcTime += m_gcs.get(i).getCollectionTime();
       }
       return gcTime;
     }
@@ -169,24 +205,22 @@ public class Tracer {
       if (m_disabled != m_disableNextCycle || m_cyclePoisoned) {
         // Gives publishers empty times,
         // reporting no data is better than bad data
-        for (var publisher : m_publishers.entrySet()) {
-          publisher.getValue().set(0.0);
+        for (int node = 1; node < m_nodeCount; node++) {
+          if (m_publishers[node] != null) {
+            m_publishers[node].set(0.0);
+          }
         }
         return;
       } else if (!m_disabled) {
-        // update times for all already existing publishers
-        for (var publisher : m_publishers.entrySet()) {
-          Double time = m_traceTimes.remove(publisher.getKey());
-          if (time == null) {
-            time = 0.0;
+        for (int node = 1; node < m_nodeCount; node++) {
+          final double time = m_traceTimes[node];
+          if (m_publishers[node] == null) {
+            if (Double.isNaN(time)) {
+              continue;
+            }
+            m_publishers[node] = m_rootTable.getDoubleTopic(m_paths[node]).publish();
           }
-          publisher.getValue().set(time);
-        }
-        // create publishers for all new entries
-        for (var traceTime : m_traceTimes.entrySet()) {
-          DoublePublisher publisher = m_rootTable.getDoubleTopic(traceTime.getKey()).publish();
-          publisher.set(traceTime.getValue());
-          m_publishers.put(traceTime.getKey(), publisher);
+          m_publishers[node].set(Double.isNaN(time) ? 0.0 : time);
         }
         // log gc time
         if (!m_gcs.isEmpty()) {
@@ -196,8 +230,7 @@ public class Tracer {
       }
 
       // clean up state
-      m_traceTimes.clear();
-      m_traceStackHistory.clear();
+      Arrays.fill(m_traceTimes, 0, m_nodeCount, Double.NaN);
 
       m_disabled = m_disableNextCycle;
     }
@@ -212,35 +245,31 @@ public class Tracer {
           });
 
   private static void startTraceInner(final String name, final TracerState state) {
-    String stack = state.appendTraceStack(name);
+    final int node = state.pushTrace(name);
     if (state.m_disabled) {
       return;
     }
-    TraceStartData data = state.m_traceStartTimes.get(stack);
-    if (data == null) {
-      data = new TraceStartData();
-      state.m_traceStartTimes.put(stack, data);
-    }
-    data.set(Timer.getFPGATimestamp() * 1_000.0, state.totalGCTime());
+    state.m_startGCTimes[node] = state.totalGCTime();
+    state.m_startTimes[node] = System.nanoTime();
   }
 
   private static void endTraceInner(final TracerState state) {
-    String stack = state.popTraceStack();
+    final long endTime = System.nanoTime();
+    final int node = state.popTrace();
     if (!state.m_disabled) {
-      if (stack.isEmpty()) {
+      if (node == TracerState.NO_NODE) {
         DriverStation.reportError(
             "[Tracer] Stack is empty,"
                 + "this means that there are more endTrace calls than startTrace calls",
             true);
         return;
       }
-      var startData = state.m_traceStartTimes.get(stack);
-      double gcTimeSinceStart = state.totalGCTime() - startData.m_startGCTotalTime;
+      double gcTimeSinceStart = state.totalGCTime() - state.m_startGCTimes[node];
       state.m_gcTimeThisCycle += gcTimeSinceStart;
-      state.m_traceTimes.put(
-          stack, Timer.getFPGATimestamp() * 1_000.0 - startData.m_startTime - gcTimeSinceStart);
+      state.m_traceTimes[node] =
+          (endTime - state.m_startTimes[node]) / 1_000_000.0 - gcTimeSinceStart;
     }
-    if (state.m_traceStack.isEmpty()) {
+    if (state.m_traceDepth == 0) {
       state.endCycle();
     }
   }
@@ -1,9 +1,11 @@
 package com.igknighters.util.plumbing;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.lang.ref.WeakReference;
 
@@ -11,7 +13,17 @@ import java.lang.ref.WeakReference;
  * A utility implementing broadcast(multi-sender, multi-receiver) type-safe channels for inner and inter thread communication
  */
 public class Channel<T> {
-    private final ArrayList<WeakReference<Receiver<T>>> receivers = new ArrayList<>();
+    @SuppressWarnings("rawtypes")
+    private static final WeakReference[] NO_RECEIVERS = new WeakReference[0];
+
+    /**
+     * A copy-on-write snapshot of all receivers, senders iterate whatever array they read
+     * and all mutation happens under {@code this} by swapping in a new array.
+     */
+    @SuppressWarnings("unchecked")
+    private volatile WeakReference<Receiver<T>>[] receivers = NO_RECEIVERS;
+    /** Set by senders when they encounter a collected receiver, cleared by {@link #sweep()} */
+    private volatile boolean hasDeadReceivers = false;
     private final Sender<T> sender = new Sender<>(this);
 
     public Channel() {}
@@ -33,7 +45,7 @@ public class Channel<T> {
      * @return a new receiver for this channel
      */
     public Receiver<T> openReceiver(int bufferSize) {
-        Receiver<T> r = new ReceiverBuffered<>(new WeakReference<>(this), bufferSize, false);
+        Receiver<T> r = new ReceiverBuffered<>(new WeakReference<>(this), bufferSize);
         addReceiver(r);
         return r;
     }
@@ -48,47 +60,122 @@ public class Channel<T> {
     @SuppressWarnings("unchecked")
     public <TSM extends ThreadSafetyMarker> SafetyMarkedReceiver<T, TSM> openReceiver(int bufferSize, TSM safetyMarker) {
         // this allows the type system to enforce our thread safety without needing to define a new class for each safety marker
-        var r = (SafetyMarkedReceiver<T, TSM>) new ReceiverBuffered<>(new WeakReference<>(this), bufferSize, safetyMarker.threadSafe());
+        var r = (SafetyMarkedReceiver<T, TSM>) newReceiver(new WeakReference<>(this), bufferSize, safetyMarker);
         addReceiver(r);
         return r;
     }
 
-    private void popReceiver(Receiver<T> receiver) {
-        for (int i = 0; i < receivers.size(); i++) {
-            if (receivers.get(i).get() == receiver) {
-                receivers.remove(i);
+    /**
+     * Opens a {@link Receiver} that hands every sent value straight to {@code reactor}
+     * on the sending thread instead of buffering it.
+     * 
+     * Receivers are weakly referenced by the channel, the returned receiver must be held onto
+     * for as long as the reactor should keep being called.
+     * 
+     * @param reactor the consumer to call with every sent value, must be thread safe if
+     *                this channel is sent to from multiple threads
+     * @return a new receiver for this channel, it can only be used to close or re-open the reactor
+     */
+    public Receiver<T> openReactor(Consumer<T> reactor) {
+        Receiver<T> r = new ReceiverReactor<>(new WeakReference<>(this), reactor);
+        addReceiver(r);
+        return r;
+    }
+
+    private static <T> SafetyMarkedReceiver<T, Internal> newReceiver(
+            WeakReference<Channel<T>> channel, int bufferSize, ThreadSafetyMarker safetyMarker) {
+        if (!safetyMarker.threadSafe()) {
+            return new ReceiverBuffered<>(channel, bufferSize);
+        }
+        return new ReceiverLockFree<>(channel, bufferSize, safetyMarker instanceof SingleProducer);
+    }
+
+    private synchronized void popReceiver(Receiver<T> receiver) {
+        final WeakReference<Receiver<T>>[] current = receivers;
+        int kept = 0;
+        final WeakReference<Receiver<T>>[] next = Arrays.copyOf(current, current.length);
+        for (WeakReference<Receiver<T>> ref : current) {
+            Receiver<T> r = ref.get();
+            if (r != null && r != receiver) {
+                next[kept++] = ref;
             }
         }
+        receivers = Arrays.copyOf(next, kept);
+        hasDeadReceivers = false;
     }
 
-    private void addReceiver(Receiver<T> receiver) {
-        for (int i = 0; i < receivers.size(); i++) {
-            if (receivers.get(i).get() == receiver) {
+    private synchronized void addReceiver(Receiver<T> receiver) {
+        final WeakReference<Receiver<T>>[] current = receivers;
+        for (WeakReference<Receiver<T>> ref : current) {
+            if (ref.get() == receiver) {
                 return;
             }
         }
-        receivers.add(new WeakReference<>(receiver));
+        final WeakReference<Receiver<T>>[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new WeakReference<>(receiver);
+        receivers = next;
+        if (hasDeadReceivers) {
+            sweep();
+        }
+    }
+
+    /**
+     * Removes any receivers that have been garbage collected.
+     * 
+     * Senders never mutate the receiver registry, they only flag that a collected receiver
+     * was seen so the registry can be compacted here, outside of the send path.
+     * This is also done automatically whenever a receiver is opened or closed.
+     */
+    public synchronized void sweep() {
+        if (!hasDeadReceivers) {
+            return;
+        }
+        hasDeadReceivers = false;
+        final WeakReference<Receiver<T>>[] current = receivers;
+        int kept = 0;
+        final WeakReference<Receiver<T>>[] next = Arrays.copyOf(current, current.length);
+        for (WeakReference<Receiver<T>> ref : current) {
+            if (ref.get() != null) {
+                next[kept++] = ref;
+            }
+        }
+        if (kept != current.length) {
+            receivers = Arrays.copyOf(next, kept);
+        }
     }
 
     /**
-     * Sends data to the channel, multicasting it to all receivers
+     * Sends data to the channel, multicasting it to all receivers.
+     * 
+     * This is safe to call from any number of threads at once and does not allocate.
      * 
      * @param newValue the new value to send
      */
     public void push(T newValue) {
-        for (WeakReference<Receiver<T>> receiver : receivers) {
-            Receiver<T> r = receiver.get();
+        final WeakReference<Receiver<T>>[] snapshot = receivers;
+        for (int i = 0; i < snapshot.length; i++) {
+            Receiver<T> r = snapshot[i].get();
             if (r != null) {
                 r.push(newValue);
-            } else {
-                receivers.remove(receiver);
+                r.wakeWaiter();
+            } else if (!hasDeadReceivers) {
+                hasDeadReceivers = true;
             }
         }
     }
 
+    /**
+     * Selects the receiver implementation at the type level.
+     * <ul>
+     * <li>{@link #SEQUENTIAL} receivers are unsynchronized and must only be touched by one thread
+     * <li>{@link #CONCURRENT} receivers are lock-free and allow any number of sending threads
+     * <li>{@link #SINGLE_PRODUCER} receivers are lock-free but expect all sends to come from one thread
+     * </ul>
+     */
     public interface ThreadSafetyMarker {
         public static final Concurrent CONCURRENT = new Concurrent();
         public static final Sequential SEQUENTIAL = new Sequential();
+        public static final SingleProducer SINGLE_PRODUCER = new SingleProducer();
 
         boolean threadSafe();
     }
@@ -110,6 +197,12 @@ public class Channel<T> {
             return false;
         }
     }
+    public static class SingleProducer implements ThreadSafetyMarker {
+        @Override
+        public boolean threadSafe() {
+            return true;
+        }
+    }
 
     /**
      * The sending end of a broadcast channel, the sent value will be multicast to
@@ -149,10 +242,40 @@ public class Channel<T> {
     public static abstract class Receiver<T> {
         private final WeakReference<Channel<T>> channel;
 
+        /** The thread currently parked in {@link #awaitData(double)}, if any */
+        private volatile Thread waiter = null;
+        /** Null until {@link #instrument()} is called */
+        volatile ChannelStats stats = null;
+
         Receiver(WeakReference<Channel<T>> channel) {
             this.channel = channel;
         }
 
+        /**
+         * @return the amount of values this receiver can hold
+         */
+        abstract int capacity();
+
+        /**
+         * Starts counting sends, receives, drops, occupancy and latency for this receiver.
+         * Calling this more than once returns the same stats.
+         * 
+         * @return the stats for this receiver
+         */
+        public synchronized ChannelStats instrument() {
+            if (stats == null) {
+                stats = new ChannelStats(capacity());
+            }
+            return stats;
+        }
+
+        private void wakeWaiter() {
+            final Thread w = waiter;
+            if (w != null) {
+                LockSupport.unpark(w);
+            }
+        }
+
         /**
          * Will push the new value to the channel's receivers
          * 
@@ -177,6 +300,52 @@ public class Channel<T> {
          */
         public abstract boolean hasData();
 
+        /**
+         * Parks the calling thread until this receiver has data, the timeout elapses
+         * or the thread is interrupted. Senders unpark the waiting thread as soon as they
+         * push, so there is no polling delay.
+         * 
+         * Only one thread can wait on a receiver at a time and the receiver should be
+         * opened with a thread safe {@link ThreadSafetyMarker}.
+         * 
+         * @param timeoutSeconds the maximum amount of time to wait
+         * @return whether the receiver has data
+         */
+        public boolean awaitData(double timeoutSeconds) {
+            if (hasData()) {
+                return true;
+            }
+            final long deadline = System.nanoTime() + (long) (timeoutSeconds * 1_000_000_000.0);
+            waiter = Thread.currentThread();
+            try {
+                // re-check after publishing the waiter so a push that raced it is not missed
+                while (!hasData()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                return true;
+            } finally {
+                waiter = null;
+            }
+        }
+
+        /**
+         * Waits for data with {@link #awaitData(double)} and then receives it.
+         * 
+         * @param timeoutSeconds the maximum amount of time to wait
+         * @return the received value, or null if the timeout elapsed first
+         */
+        public T recvBlocking(double timeoutSeconds) {
+            if (awaitData(timeoutSeconds)) {
+                return recv();
+            } else {
+                return null;
+            }
+        }
+
         /**
          * @return an optional containing the received value, or empty if the channel is
          *         empty,
@@ -248,7 +417,7 @@ public class Channel<T> {
          * @return the forked receiver
          */
         public Receiver<T> fork(int bufferSize) {
-            Receiver<T> r = new ReceiverBuffered<>(channel, bufferSize, false);
+            Receiver<T> r = new ReceiverBuffered<>(channel, bufferSize);
             Optional.ofNullable(channel.get()).ifPresent(channel -> channel.addReceiver(r));
             return r;
         }
@@ -262,7 +431,7 @@ public class Channel<T> {
          */
         @SuppressWarnings("unchecked")
         public <TSM extends ThreadSafetyMarker> SafetyMarkedReceiver<T, TSM> fork(int bufferSize, TSM safetyMarker) {
-            var r = (SafetyMarkedReceiver<T, TSM>) new ReceiverBuffered<>(channel, bufferSize, safetyMarker.threadSafe());
+            var r = (SafetyMarkedReceiver<T, TSM>) newReceiver(channel, bufferSize, safetyMarker);
             Optional.ofNullable(channel.get()).ifPresent(channel -> channel.addReceiver(r));
             return r;
         }
@@ -277,22 +446,23 @@ public class Channel<T> {
     /**
      * The receiving end of a broadcast channel that stores all values in a circular
      * buffer,
-     * can hold up to specified number of values
+     * can hold up to specified number of values.
+     * 
+     * This receiver does no synchronization and should only be used from a single thread.
      */
     private static final class ReceiverBuffered<T> extends SafetyMarkedReceiver<T, Internal> {
-        private final Optional<Lock> lock;
-
         /** the buffer of all currently held values */
         private final T[] buffer;
         /** the index of the newest data */
         private int newestIndex = 0;
         /** the index of the oldest data */
         private int oldestIndex = 0;
+        /** the {@link System#nanoTime()} each value was pushed at, only written when instrumented */
+        private final long[] enqueueNanos;
 
         @SuppressWarnings("unchecked")
-        public ReceiverBuffered(WeakReference<Channel<T>> channel, int bufferSize, boolean threadSafe) {
+        public ReceiverBuffered(WeakReference<Channel<T>> channel, int bufferSize) {
             super(channel);
-            lock = threadSafe ? Optional.of(new ReentrantLock(false)) : Optional.empty();
             if (bufferSize <= 0) {
                 throw new IllegalArgumentException("bufferSize must be positive and non-zero");
             }
@@ -300,52 +470,247 @@ public class Channel<T> {
             for (int i = 0; i < bufferSize; i++) {
                 buffer[i] = null;
             }
+            enqueueNanos = new long[bufferSize];
+        }
+
+        @Override
+        int capacity() {
+            return buffer.length;
         }
 
         @Override
         public T recv() {
-            lock.ifPresent(Lock::lock);
-            try {
-                T value = buffer[oldestIndex];
-                buffer[oldestIndex] = null;
-                oldestIndex = (oldestIndex + 1) % buffer.length;
-                return value;
-            } finally {
-                lock.ifPresent(Lock::unlock);
+            T value = buffer[oldestIndex];
+            final ChannelStats s = stats;
+            if (s != null && value != null) {
+                s.recordReceive(System.nanoTime() - enqueueNanos[oldestIndex]);
             }
+            buffer[oldestIndex] = null;
+            oldestIndex = (oldestIndex + 1) % buffer.length;
+            return value;
         }
 
         @Override
         public T inspect() {
-            lock.ifPresent(Lock::lock);
-            try {
-                return buffer[oldestIndex];
-            } finally {
-                lock.ifPresent(Lock::unlock);
+            return buffer[oldestIndex];
+        }
+
+        @Override
+        public boolean hasData() {
+            return buffer[oldestIndex] != null;
+        }
+
+        @Override
+        protected void push(T newValue) {
+            final ChannelStats s = stats;
+            if (s != null) {
+                enqueueNanos[newestIndex] = System.nanoTime();
+            }
+            buffer[newestIndex] = newValue;
+            newestIndex = (newestIndex + 1) % buffer.length;
+            boolean dropped = false;
+            if (newestIndex == oldestIndex) {
+                oldestIndex = (oldestIndex + 1) % buffer.length;
+                dropped = true;
             }
+            if (s != null) {
+                int held = (newestIndex - oldestIndex + buffer.length) % buffer.length;
+                s.recordSend(held == 0 ? buffer.length : held, dropped);
+            }
+        }
+    }
+
+    /**
+     * The receiving end of a broadcast channel that calls a consumer with the
+     * received value
+     */
+    private static final class ReceiverReactor<T> extends Receiver<T> {
+        private final Consumer<T> reactor;
+
+        public ReceiverReactor(WeakReference<Channel<T>> channel, Consumer<T> reactor) {
+            super(channel);
+            this.reactor = reactor;
+        }
+
+        @Override
+        int capacity() {
+            return 0;
+        }
+
+        @Override
+        public T recv() {
+            throw new UnsupportedOperationException("Reactor receivers do not support recv");
+        }
+
+        @Override
+        public T inspect() {
+            throw new UnsupportedOperationException("Reactor receivers do not support inspect");
         }
 
         @Override
         public boolean hasData() {
-            lock.ifPresent(Lock::lock);
-            try {
-                return buffer[oldestIndex] != null;
-            } finally {
-                lock.ifPresent(Lock::unlock);
+            return false;
+        }
+
+        @Override
+        protected void push(T newValue) {
+            reactor.accept(newValue);
+        }
+    }
+
+    /**
+     * The receiving end of a broadcast channel that stores all values in a lock-free circular
+     * buffer, can hold up to specified number of values and overwrites the oldest value when full.
+     * 
+     * Every sent value is given a monotonically increasing sequence number, each slot stores the
+     * sequence of the value it holds as {@code 2 * seq + 1} while a sender is writing it and
+     * {@code 2 * seq + 2} once published. Receivers compare the slot sequence before and after
+     * reading the value to detect being lapped by a sender, so neither side ever blocks on the other.
+     * A slot that is still being written is reported as empty rather than waited on.
+     */
+    private static final class ReceiverLockFree<T> extends SafetyMarkedReceiver<T, Internal> {
+        private final boolean singleProducer;
+        private final int capacity;
+
+        /** the buffer of all currently held values */
+        private final AtomicReferenceArray<T> buffer;
+        /** the sequence state of every slot in the buffer */
+        private final AtomicLongArray slotSequences;
+        /** the sequence the next sent value will be given */
+        private final AtomicLong head = new AtomicLong();
+        /** the sequence of the oldest value that has not been received */
+        private final AtomicLong tail = new AtomicLong();
+        /**
+         * the {@link System#nanoTime()} each slot was pushed at, only written when instrumented,
+         * guarded by the slot sequence like the value itself
+         */
+        private final long[] enqueueNanos;
+
+        public ReceiverLockFree(WeakReference<Channel<T>> channel, int bufferSize, boolean singleProducer) {
+            super(channel);
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("bufferSize must be positive and non-zero");
             }
+            this.singleProducer = singleProducer;
+            this.capacity = bufferSize;
+            this.buffer = new AtomicReferenceArray<>(bufferSize);
+            this.slotSequences = new AtomicLongArray(bufferSize);
+            this.enqueueNanos = new long[bufferSize];
+        }
+
+        @Override
+        int capacity() {
+            return capacity;
+        }
+
+        private static long writingSequence(long seq) {
+            return (seq << 1) + 1;
+        }
+
+        private static long publishedSequence(long seq) {
+            return (seq << 1) + 2;
+        }
+
+        /**
+         * Reads the oldest held value.
+         * 
+         * @param consume whether to remove the value from the buffer
+         * @return the oldest value, or null if there is none ready
+         */
+        private T read(boolean consume) {
+            while (true) {
+                final long t = tail.get();
+                final long h = head.get();
+                if (t >= h) {
+                    return null;
+                }
+                if (h - t > capacity) {
+                    // this receiver was lapped, skip the overwritten values
+                    tail.compareAndSet(t, h - capacity);
+                    continue;
+                }
+                final int slot = (int) (t % capacity);
+                final long expected = publishedSequence(t);
+                final long before = slotSequences.get(slot);
+                if (before < expected) {
+                    // the sender that claimed this sequence has not published it yet
+                    return null;
+                }
+                final T value = buffer.get(slot);
+                final long enqueued = enqueueNanos[slot];
+                if (before != expected || slotSequences.get(slot) != expected) {
+                    // a newer send overwrote the slot while it was being read
+                    tail.compareAndSet(t, t + 1);
+                    continue;
+                }
+                if (!consume) {
+                    return value;
+                }
+                if (tail.compareAndSet(t, t + 1)) {
+                    final ChannelStats s = stats;
+                    if (s != null) {
+                        s.recordReceive(System.nanoTime() - enqueued);
+                    }
+                    return value;
+                }
+            }
+        }
+
+        @Override
+        public T recv() {
+            return read(true);
+        }
+
+        @Override
+        public T inspect() {
+            return read(false);
+        }
+
+        @Override
+        public boolean hasData() {
+            return read(false) != null;
         }
 
         @Override
         protected void push(T newValue) {
-            lock.ifPresent(Lock::lock);
-            try {
-                buffer[newestIndex] = newValue;
-                newestIndex = (newestIndex + 1) % buffer.length;
-                if (newestIndex == oldestIndex) {
-                    oldestIndex = (oldestIndex + 1) % buffer.length;
+            final long seq = singleProducer ? head.get() : head.getAndIncrement();
+            final int slot = (int) (seq % capacity);
+            final long writing = writingSequence(seq);
+
+            if (singleProducer) {
+                slotSequences.set(slot, writing);
+            } else {
+                while (true) {
+                    final long current = slotSequences.get(slot);
+                    if (current >= writing) {
+                        // a newer send already owns this slot, this value would be overwritten anyway
+                        return;
+                    }
+                    if ((current & 1) == 1) {
+                        // an older send lapped by a full buffer is mid-write, it only has two stores left
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    if (slotSequences.compareAndSet(slot, current, writing)) {
+                        break;
+                    }
                 }
-            } finally {
-                lock.ifPresent(Lock::unlock);
+            }
+
+            final ChannelStats s = stats;
+            buffer.set(slot, newValue);
+            if (s != null) {
+                enqueueNanos[slot] = System.nanoTime();
+            }
+            slotSequences.set(slot, publishedSequence(seq));
+
+            if (singleProducer) {
+                head.set(seq + 1);
+            }
+
+            if (s != null) {
+                final long behind = seq - tail.get();
+                s.recordSend(Math.min(behind + 1, capacity), behind >= capacity);
             }
         }
     }
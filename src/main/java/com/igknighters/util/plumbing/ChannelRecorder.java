@@ -0,0 +1,57 @@
+package com.igknighters.util.plumbing;
+
+import java.util.ArrayList;
+
+import com.igknighters.util.plumbing.PrimitiveChannel.PrimitiveRecord;
+
+import edu.wpi.first.util.WPIUtilJNI;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.StructLogEntry;
+import edu.wpi.first.util.struct.Struct;
+
+/**
+ * Records every value sent through a set of channels to a {@link DataLog}.
+ *
+ * Values are appended on the sending thread the moment they are sent, stamped with
+ * {@link WPIUtilJNI#now()} which is the same microsecond clock the FPGA timestamp is derived from.
+ * A recorded log can be fed back into the same channels with a {@link ChannelReplayer}.
+ *
+ * The recorder holds the reactors it opens, it must be kept alive for as long as recording should continue.
+ */
+public class ChannelRecorder {
+    private final DataLog log;
+    private final ArrayList<Channel.Receiver<?>> reactors = new ArrayList<>();
+
+    /**
+     * Creates a new recorder
+     *
+     * @param log the log to record to
+     */
+    public ChannelRecorder(DataLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Records every value sent through {@code channel} as a struct entry
+     *
+     * @param name the name of the log entry
+     * @param channel the channel to record
+     * @param struct the struct used to serialize the values
+     */
+    public synchronized <T> void record(String name, Channel<T> channel, Struct<T> struct) {
+        final StructLogEntry<T> entry = StructLogEntry.create(log, name, struct);
+        reactors.add(channel.openReactor(value -> entry.append(value, WPIUtilJNI.now())));
+    }
+
+    /**
+     * Records every record sent through {@code channel} as a double array entry
+     *
+     * @param name the name of the log entry
+     * @param channel the channel to record
+     */
+    public synchronized <R extends PrimitiveRecord> void record(String name, PrimitiveChannel<R> channel) {
+        final DoubleArrayLogEntry entry = new DoubleArrayLogEntry(log, name);
+        channel.addReactor(record -> entry.append(record, WPIUtilJNI.now()));
+    }
+}
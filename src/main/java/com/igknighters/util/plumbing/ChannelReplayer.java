@@ -0,0 +1,132 @@
+package com.igknighters.util.plumbing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+import com.igknighters.util.plumbing.PrimitiveChannel.PrimitiveRecord;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+import edu.wpi.first.util.struct.Struct;
+
+/**
+ * Sends the values recorded by a {@link ChannelRecorder} back into channels.
+ *
+ * Replay does not sleep between values, the log is replayed as fast as the receivers
+ * can keep up with, so hours of recorded data can be re-run in a headless JVM.
+ * To emulate the robot loop a step callback is invoked every {@code stepSeconds} of log time.
+ */
+public class ChannelReplayer {
+    private final DataLogReader reader;
+    /** Decoders keyed by entry name, registered before {@link #run(double, DoubleConsumer)} */
+    private final HashMap<String, Consumer<DataLogRecord>> decoders = new HashMap<>();
+
+    /**
+     * Opens a log to replay
+     *
+     * @param filename the path of the log
+     * @throws IOException if the log could not be read
+     */
+    public ChannelReplayer(String filename) throws IOException {
+        this.reader = new DataLogReader(filename);
+        if (!reader.isValid()) {
+            throw new IOException("Not a valid datalog: " + filename);
+        }
+    }
+
+    /**
+     * Replays a struct entry recorded with {@link ChannelRecorder#record(String, Channel, Struct)}
+     *
+     * @param name the name of the log entry
+     * @param channel the channel to send the recorded values through
+     * @param struct the struct used to deserialize the values
+     */
+    public <T> void replay(String name, Channel<T> channel, Struct<T> struct) {
+        final Channel.Sender<T> sender = channel.sender();
+        decoders.put(name, record -> sender.send(
+            struct.unpack(ByteBuffer.wrap(record.getRaw()).order(ByteOrder.LITTLE_ENDIAN))
+        ));
+    }
+
+    /**
+     * Replays a double array entry recorded with {@link ChannelRecorder#record(String, PrimitiveChannel)}
+     *
+     * @param name the name of the log entry
+     * @param channel the channel to send the recorded records through
+     * @param scratch the record every recorded value is copied into before being sent
+     */
+    public <R extends PrimitiveRecord> void replay(String name, PrimitiveChannel<R> channel, R scratch) {
+        final PrimitiveChannel.Sender<R> sender = channel.sender();
+        final double[] out = scratch.data();
+        decoders.put(name, record -> {
+            final double[] recorded = record.getDoubleArray();
+            if (recorded.length != out.length) {
+                return;
+            }
+            System.arraycopy(recorded, 0, out, 0, out.length);
+            sender.send(scratch);
+        });
+    }
+
+    /**
+     * Replays the whole log in order.
+     *
+     * {@code onStep} is invoked with the log time in seconds every time the log crosses a multiple of
+     * {@code stepSeconds}, before the first value past that time is sent.
+     * It is also invoked once after the last value.
+     *
+     * @param stepSeconds the amount of log time between calls to {@code onStep}
+     * @param onStep called every step, this is where the receivers should be drained
+     * @return the amount of values sent
+     */
+    public long run(double stepSeconds, DoubleConsumer onStep) {
+        final long stepMicros = Math.max(1, (long) (stepSeconds * 1_000_000.0));
+        final HashMap<Integer, Consumer<DataLogRecord>> entries = new HashMap<>();
+        long nextStep = -1;
+        long lastTimestamp = 0;
+        long sent = 0;
+
+        for (DataLogRecord record : reader) {
+            if (record.isStart()) {
+                var start = record.getStartData();
+                var decoder = decoders.get(start.name);
+                if (decoder != null) {
+                    entries.put(start.entry, decoder);
+                }
+                continue;
+            } else if (record.isFinish()) {
+                entries.remove(record.getFinishEntry());
+                continue;
+            } else if (record.isControl()) {
+                continue;
+            }
+
+            var decoder = entries.get(record.getEntry());
+            if (decoder == null) {
+                continue;
+            }
+
+            final long timestamp = record.getTimestamp();
+            if (nextStep < 0) {
+                nextStep = timestamp - (timestamp % stepMicros) + stepMicros;
+            }
+            while (timestamp >= nextStep) {
+                onStep.accept(nextStep / 1_000_000.0);
+                nextStep += stepMicros;
+            }
+
+            decoder.accept(record);
+            lastTimestamp = timestamp;
+            sent++;
+        }
+
+        if (sent > 0) {
+            onStep.accept(lastTimestamp / 1_000_000.0);
+        }
+        return sent;
+    }
+}
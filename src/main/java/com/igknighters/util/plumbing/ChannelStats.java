@@ -0,0 +1,168 @@
+package com.igknighters.util.plumbing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import monologue.Logged;
+import monologue.Annotations.Log;
+
+/**
+ * Throughput, drop and latency counters for a single channel receiver.
+ *
+ * Obtained by instrumenting a receiver, from then on every send and receive is counted.
+ * All counters are lock-free and allocation free so they can be updated from the odometry
+ * and vision threads. Holding this in a {@link Logged} field publishes it through Monologue.
+ *
+ * @see Channel.Receiver#instrument()
+ * @see PrimitiveChannel.Receiver#instrument()
+ */
+public final class ChannelStats implements Logged {
+    /**
+     * The amount of buckets in the latency histogram, bucket {@code i} counts receives that waited
+     * less than {@code 2^i} microseconds and the last bucket counts everything slower.
+     */
+    public static final int LATENCY_BUCKETS = 18;
+
+    private final int capacity;
+
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong receives = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+
+    /** Reused by {@link #latencyHistogram()} so logging doesn't allocate */
+    private final long[] histogramSnapshot = new long[LATENCY_BUCKETS];
+
+    ChannelStats(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records a value being pushed into the receiver
+     *
+     * @param occupancy the amount of values held after the push
+     * @param dropped whether the push overwrote a value that was never received
+     */
+    void recordSend(long occupancy, boolean dropped) {
+        sends.incrementAndGet();
+        if (dropped) {
+            drops.incrementAndGet();
+        }
+        long high = highWaterMark.get();
+        while (occupancy > high && !highWaterMark.compareAndSet(high, occupancy)) {
+            high = highWaterMark.get();
+        }
+    }
+
+    /**
+     * Records a value being received
+     *
+     * @param latencyNanos the time between the value being sent and received
+     */
+    void recordReceive(long latencyNanos) {
+        receives.incrementAndGet();
+        long micros = Math.max(0, latencyNanos / 1_000);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);
+        latencyHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return the amount of values the receiver can hold
+     */
+    @Log
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the amount of values sent to the receiver
+     */
+    @Log
+    public long sends() {
+        return sends.get();
+    }
+
+    /**
+     * @return the amount of values taken out of the receiver
+     */
+    @Log
+    public long receives() {
+        return receives.get();
+    }
+
+    /**
+     * @return the amount of values that were overwritten before being received
+     */
+    @Log
+    public long drops() {
+        return drops.get();
+    }
+
+    /**
+     * @return the most values the receiver has held at once
+     */
+    @Log
+    public long highWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * The returned array is reused between calls.
+     *
+     * @return the send to receive latency histogram, see {@link #LATENCY_BUCKETS}
+     */
+    @Log
+    public long[] latencyHistogram() {
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            histogramSnapshot[i] = latencyHistogram.get(i);
+        }
+        return histogramSnapshot;
+    }
+
+    /**
+     * @param percentile the percentile to get, between 0.0 and 1.0
+     * @return the upper bound of the histogram bucket the percentile falls in, in milliseconds
+     */
+    public double latencyPercentileMs(double percentile) {
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            total += latencyHistogram.get(i);
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += latencyHistogram.get(i);
+            if (seen >= target) {
+                return (1L << i) / 1_000.0;
+            }
+        }
+        return (1L << (LATENCY_BUCKETS - 1)) / 1_000.0;
+    }
+
+    @Log
+    public double latencyP50Ms() {
+        return latencyPercentileMs(0.5);
+    }
+
+    @Log
+    public double latencyP99Ms() {
+        return latencyPercentileMs(0.99);
+    }
+
+    /**
+     * Zeroes every counter
+     */
+    public void reset() {
+        sends.set(0);
+        receives.set(0);
+        drops.set(0);
+        highWaterMark.set(0);
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latencyHistogram.set(i, 0);
+        }
+    }
+}
@@ -1,19 +1,107 @@
 package com.igknighters.util.plumbing;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
-import java.lang.reflect.Type;
 
 /**
  * A utility implementing broadcast(multi-sender, multi-receiver) type-safe channels for inner and inter thread communication
+ * 
+ * Channels are identified by name, the name is resolved to a typed {@link ChannelKey} once
+ * and every sender and receiver holds that key directly. Sending never touches the registry.
  */
 public class GlobalChannels {
-    private static final HashMap<String, ArrayList<Receiver<?>>> receivers = new HashMap<>();
-    private static final HashMap<String, Type> types = new HashMap<>();
+    private static final ConcurrentHashMap<String, ChannelKey<?>> registry = new ConcurrentHashMap<>();
+
+    /**
+     * A typed handle to a global channel, resolving the same name always returns the same key.
+     * 
+     * The key owns the receivers of the channel in a copy-on-write array so senders
+     * can iterate it from any thread without locking or hashing.
+     * 
+     * @param <T> The type of the channel
+     */
+    public static final class ChannelKey<T> {
+        private final String name;
+        private final Class<T> type;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private volatile Receiver<T>[] receivers = new Receiver[0];
+
+        private ChannelKey(String name, Class<T> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * @return the name of the channel
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the type of the channel
+         */
+        public Class<T> type() {
+            return type;
+        }
+
+        private synchronized void addReceiver(Receiver<T> receiver) {
+            final Receiver<T>[] current = receivers;
+            final Receiver<T>[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = receiver;
+            receivers = next;
+        }
+
+        private synchronized void removeReceiver(Receiver<T> receiver) {
+            final Receiver<T>[] current = receivers;
+            int kept = 0;
+            final Receiver<T>[] next = Arrays.copyOf(current, current.length);
+            for (Receiver<T> r : current) {
+                if (r != receiver) {
+                    next[kept++] = r;
+                }
+            }
+            receivers = Arrays.copyOf(next, kept);
+        }
+
+        private void send(T newValue) {
+            final Receiver<T>[] snapshot = receivers;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i].send(newValue);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ChannelKey(" + name + ", " + type.getSimpleName() + ")";
+        }
+    }
+
+    /**
+     * Resolves the typed key for a channel, creating the channel if it doesn't exist yet.
+     * This should be done once and the key stored, not done every send.
+     * 
+     * @param <T> the type of the channel
+     * @param channelName the name of the channel
+     * @param clazz the type of the channel
+     * @return the key for the channel
+     * @throws IllegalArgumentException if the channel already exists with a different type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ChannelKey<T> key(final String channelName, Class<T> clazz) {
+        ChannelKey<?> key = registry.computeIfAbsent(channelName, name -> new ChannelKey<>(name, clazz));
+        if (key.type != clazz) {
+            throw new IllegalArgumentException(
+                    "Channel " + channelName + " already exists with type "
+                            + key.type + " but tried to use it with type " + clazz);
+        }
+        return (ChannelKey<T>) key;
+    }
 
     /**
      * The receiving end of a channel, data can be extracted from it,
@@ -22,20 +110,14 @@ public class GlobalChannels {
      * @param <T> The type of the channel
      */
     public static abstract class Receiver<T> {
-        private final String channelName;
+        private final ChannelKey<T> key;
 
-        Receiver(Class<T> clazz, String channelName) {
-            this.channelName = channelName;
-            if (!types.containsKey(channelName)) {
-                types.put(channelName, clazz);
-            } else {
-                if (types.get(channelName) != clazz) {
-                    throw new RuntimeException("Channel " + channelName + " already exists with type "
-                            + types.get(channelName) + " but tried to create with type " + clazz);
-                }
-            }
-            receivers.putIfAbsent(channelName, new ArrayList<>());
-            receivers.get(channelName).add(this);
+        /**
+         * Receivers are only added to the key by the factories once fully constructed,
+         * a send racing the constructor would otherwise see the subclass fields unset.
+         */
+        Receiver(ChannelKey<T> key) {
+            this.key = key;
         }
 
         /**
@@ -119,14 +201,21 @@ public class GlobalChannels {
          * @return the name of the channel
          */
         public String getChannelName() {
-            return channelName;
+            return key.name();
+        }
+
+        /**
+         * @return the key of the channel
+         */
+        public ChannelKey<T> getChannelKey() {
+            return key;
         }
 
         /**
          * Closes the receiver, removing it from the channel
          */
         public void close() {
-            receivers.get(getChannelName()).remove(this);
+            key.removeReceiver(this);
         }
 
         /**
@@ -138,7 +227,20 @@ public class GlobalChannels {
          * @return the receiver
          */
         public static <T> Receiver<T> latest(final String channelName, Class<T> clazz) {
-            return new ReceiverLatest<T>(clazz, channelName);
+            return latest(key(channelName, clazz));
+        }
+
+        /**
+         * Creates a receiver that stores the latest value
+         * 
+         * @param <T> the type of the channel
+         * @param key the key of the channel to receive from
+         * @return the receiver
+         */
+        public static <T> Receiver<T> latest(final ChannelKey<T> key) {
+            final Receiver<T> receiver = new ReceiverLatest<T>(key);
+            key.addReceiver(receiver);
+            return receiver;
         }
 
         /**
@@ -150,7 +252,21 @@ public class GlobalChannels {
          * @return the receiver
          */
         public static <T> Receiver<T> buffered(final String channelName, int bufferSize, Class<T> clazz) {
-            return new ReceiverBuffered<T>(bufferSize, clazz, channelName);
+            return buffered(key(channelName, clazz), bufferSize);
+        }
+
+        /**
+         * Creates a buffered receiver with the specified buffer size
+         * 
+         * @param <T>        the type of the channel
+         * @param key        the key of the channel to receive from
+         * @param bufferSize the size of the buffer
+         * @return the receiver
+         */
+        public static <T> Receiver<T> buffered(final ChannelKey<T> key, int bufferSize) {
+            final Receiver<T> receiver = new ReceiverBuffered<T>(bufferSize, key);
+            key.addReceiver(receiver);
+            return receiver;
         }
 
         /**
@@ -161,7 +277,7 @@ public class GlobalChannels {
          * @return the receiver
          */
         public static <T> Receiver<T> buffered(final String channelName, Class<T> clazz) {
-            return new ReceiverBuffered<T>(64, clazz, channelName);
+            return buffered(key(channelName, clazz), 64);
         }
 
         /**
@@ -172,7 +288,18 @@ public class GlobalChannels {
          * @param consumer    the consumer to call with the received value
          */
         public static <T> void reactor(final String channelName, Class<T> clazz, Consumer<T> consumer) {
-            new ReceiverReactor<T>(clazz, channelName, consumer);
+            reactor(key(channelName, clazz), consumer);
+        }
+
+        /**
+         * Creates a receiver that calls the specified consumer with the received value
+         * 
+         * @param <T>      the type of the channel
+         * @param key      the key of the channel to receive from
+         * @param consumer the consumer to call with the received value
+         */
+        public static <T> void reactor(final ChannelKey<T> key, Consumer<T> consumer) {
+            key.addReceiver(new ReceiverReactor<T>(key, consumer));
         }
     }
 
@@ -185,18 +312,18 @@ public class GlobalChannels {
         private boolean hasValue = false;
         private T value = null;
 
-        public ReceiverLatest(Class<T> clazz, final String channelName) {
-            super(clazz, channelName);
+        public ReceiverLatest(final ChannelKey<T> key) {
+            super(key);
         }
 
         @Override
         public T recv() {
-            lock.readLock().lock();
+            lock.writeLock().lock();
             try {
                 hasValue = false;
                 return value;
             } finally {
-                lock.readLock().unlock();
+                lock.writeLock().unlock();
             }
         }
 
@@ -248,8 +375,8 @@ public class GlobalChannels {
         private int oldestIndex = 0;
 
         @SuppressWarnings("unchecked")
-        public ReceiverBuffered(int bufferSize, Class<T> clazz, final String channelName) {
-            super(clazz, channelName);
+        public ReceiverBuffered(int bufferSize, final ChannelKey<T> key) {
+            super(key);
             if (bufferSize <= 0) {
                 throw new IllegalArgumentException("bufferSize must be positive and non-zero");
             }
@@ -261,14 +388,14 @@ public class GlobalChannels {
 
         @Override
         public T recv() {
-            lock.readLock().lock();
+            lock.writeLock().lock();
             try {
                 T value = buffer[oldestIndex];
                 buffer[oldestIndex] = null;
                 oldestIndex = (oldestIndex + 1) % buffer.length;
                 return value;
             } finally {
-                lock.readLock().unlock();
+                lock.writeLock().unlock();
             }
         }
 
@@ -314,8 +441,8 @@ public class GlobalChannels {
     private static final class ReceiverReactor<T> extends Receiver<T> {
         private final Consumer<T> consumer;
 
-        public ReceiverReactor(Class<T> clazz, final String channelName, Consumer<T> consumer) {
-            super(clazz, channelName);
+        public ReceiverReactor(final ChannelKey<T> key, Consumer<T> consumer) {
+            super(key);
             this.consumer = consumer;
         }
 
@@ -346,24 +473,10 @@ public class GlobalChannels {
      * all receivers
      */
     public static final class Sender<T> {
-        private final String channelName;
-        /** A reference to the entry value in the {@code receivers} map */
-        private final ArrayList<Receiver<?>> receiverCache;
-
-        private Sender(final String channelName, Class<T> clazz) {
-            this.channelName = channelName;
-            if (!receivers.containsKey(channelName)) {
-                receivers.put(channelName, new ArrayList<>());
-            }
-            if (types.containsKey(channelName)) {
-                if (types.get(channelName) != clazz) {
-                    throw new IllegalArgumentException(
-                            "Channel " + channelName + " already exists with type " + types.get(channelName));
-                }
-            } else {
-                types.put(channelName, clazz);
-            }
-            receiverCache = receivers.get(channelName);
+        private final ChannelKey<T> key;
+
+        private Sender(final ChannelKey<T> key) {
+            this.key = key;
         }
 
         /**
@@ -371,22 +484,30 @@ public class GlobalChannels {
          * 
          * @param newValue the new value to send
          */
-        @SuppressWarnings("unchecked")
         public void send(T newValue) {
-            for (Receiver<?> receiver : receiverCache) {
-                ((Receiver<T>) receiver).send(newValue);
-            }
+            key.send(newValue);
         }
 
         /**
          * @return the name of the channel
          */
         public String getChannelName() {
-            return channelName;
+            return key.name();
+        }
+
+        /**
+         * @return the key of the channel
+         */
+        public ChannelKey<T> getChannelKey() {
+            return key;
         }
 
         public static <T> Sender<T> broadcast(final String channelName, Class<T> clazz) {
-            return new Sender<>(channelName, clazz);
+            return new Sender<>(key(channelName, clazz));
+        }
+
+        public static <T> Sender<T> broadcast(final ChannelKey<T> key) {
+            return new Sender<>(key);
         }
     }
 }
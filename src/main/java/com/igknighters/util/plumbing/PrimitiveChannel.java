@@ -0,0 +1,391 @@
+package com.igknighters.util.plumbing;
+
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A broadcast channel specialized for fixed width records of doubles.
+ *
+ * Unlike {@link Channel} no objects are passed between threads, every receiver owns a
+ * preallocated {@code double[]} ring that the sender copies records into and the receiver copies
+ * records out of. In steady state neither side allocates.
+ *
+ * A channel expects all sends to come from a single thread, receivers are lock-free and can be
+ * read from any other thread.
+ *
+ * @param <R> The record type carried by the channel
+ */
+public class PrimitiveChannel<R extends PrimitiveChannel.PrimitiveRecord> {
+    /**
+     * A record that is backed by a flat {@code double[]} of a fixed width.
+     */
+    public interface PrimitiveRecord {
+        /**
+         * @return the backing array of this record, must be exactly the width of the channel
+         */
+        double[] data();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final WeakReference[] NO_RECEIVERS = new WeakReference[0];
+
+    private final int recordWidth;
+    private final Sender<R> sender = new Sender<>(this);
+
+    /** A copy-on-write snapshot of all receivers, see {@link Channel} */
+    @SuppressWarnings("unchecked")
+    private volatile WeakReference<Receiver<R>>[] receivers = NO_RECEIVERS;
+    /** A copy-on-write snapshot of all reactors */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private volatile Consumer<double[]>[] reactors = new Consumer[0];
+
+    /**
+     * Creates a new channel
+     *
+     * @param recordWidth the amount of doubles in every record
+     */
+    public PrimitiveChannel(int recordWidth) {
+        if (recordWidth <= 0) {
+            throw new IllegalArgumentException("recordWidth must be positive and non-zero");
+        }
+        this.recordWidth = recordWidth;
+    }
+
+    /**
+     * @return the amount of doubles in every record
+     */
+    public int recordWidth() {
+        return recordWidth;
+    }
+
+    /**
+     * Returns the sender for this channel
+     *
+     * @return the sender for this channel
+     */
+    public Sender<R> sender() {
+        return sender;
+    }
+
+    /**
+     * Opens a new {@link Receiver} for this channel.
+     *
+     * @param bufferSize the amount of records the receiver can hold before overwriting the oldest
+     * @return a new receiver for this channel
+     */
+    public Receiver<R> openReceiver(int bufferSize) {
+        Receiver<R> r = new Receiver<>(new WeakReference<>(this), bufferSize, recordWidth);
+        addReceiver(r);
+        return r;
+    }
+
+    /**
+     * Adds a reactor that is handed every sent record on the sending thread.
+     *
+     * The array passed to the reactor is only valid for the duration of the call.
+     * Unlike receivers, reactors are strongly referenced until removed.
+     *
+     * @param reactor the consumer to call with the backing array of every sent record
+     */
+    public synchronized void addReactor(Consumer<double[]> reactor) {
+        final Consumer<double[]>[] current = reactors;
+        final Consumer<double[]>[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = reactor;
+        reactors = next;
+    }
+
+    /**
+     * Removes a reactor added with {@link #addReactor(Consumer)}
+     *
+     * @param reactor the reactor to remove
+     */
+    public synchronized void removeReactor(Consumer<double[]> reactor) {
+        final Consumer<double[]>[] current = reactors;
+        int kept = 0;
+        final Consumer<double[]>[] next = Arrays.copyOf(current, current.length);
+        for (Consumer<double[]> c : current) {
+            if (c != reactor) {
+                next[kept++] = c;
+            }
+        }
+        reactors = Arrays.copyOf(next, kept);
+    }
+
+    private synchronized void addReceiver(Receiver<R> receiver) {
+        final WeakReference<Receiver<R>>[] current = receivers;
+        int kept = 0;
+        final WeakReference<Receiver<R>>[] next = Arrays.copyOf(current, current.length + 1);
+        for (WeakReference<Receiver<R>> ref : current) {
+            Receiver<R> r = ref.get();
+            if (r == receiver) {
+                return;
+            } else if (r != null) {
+                next[kept++] = ref;
+            }
+        }
+        next[kept++] = new WeakReference<>(receiver);
+        receivers = Arrays.copyOf(next, kept);
+    }
+
+    private synchronized void popReceiver(Receiver<R> receiver) {
+        final WeakReference<Receiver<R>>[] current = receivers;
+        int kept = 0;
+        final WeakReference<Receiver<R>>[] next = Arrays.copyOf(current, current.length);
+        for (WeakReference<Receiver<R>> ref : current) {
+            Receiver<R> r = ref.get();
+            if (r != null && r != receiver) {
+                next[kept++] = ref;
+            }
+        }
+        receivers = Arrays.copyOf(next, kept);
+    }
+
+    private void push(double[] record) {
+        final WeakReference<Receiver<R>>[] snapshot = receivers;
+        for (int i = 0; i < snapshot.length; i++) {
+            Receiver<R> r = snapshot[i].get();
+            if (r != null) {
+                r.push(record);
+                r.wakeWaiter();
+            }
+        }
+        final Consumer<double[]>[] reactorSnapshot = reactors;
+        for (int i = 0; i < reactorSnapshot.length; i++) {
+            reactorSnapshot[i].accept(record);
+        }
+    }
+
+    /**
+     * The sending end of a primitive channel, the sent record will be copied into
+     * every receiver
+     */
+    public static final class Sender<R extends PrimitiveRecord> {
+        private final WeakReference<PrimitiveChannel<R>> channel;
+
+        private Sender(PrimitiveChannel<R> channel) {
+            this.channel = new WeakReference<>(channel);
+        }
+
+        /**
+         * Copies the record to every receiver, the record can be reused as soon as this returns.
+         *
+         * @param record the record to send
+         */
+        public void send(R record) {
+            var c = channel.get();
+            if (c != null) {
+                c.push(record.data());
+            }
+        }
+    }
+
+    /**
+     * The receiving end of a primitive channel, records are copied out into caller owned records.
+     *
+     * Uses the same sequence scheme as the lock-free {@link Channel} receivers,
+     * a slot holds {@code 2 * seq + 1} while being written and {@code 2 * seq + 2} once published.
+     */
+    public static final class Receiver<R extends PrimitiveRecord> {
+        private final WeakReference<PrimitiveChannel<R>> channel;
+        private final int capacity;
+        private final int width;
+
+        /** all slots laid out back to back */
+        private final double[] data;
+        /** the sequence state of every slot in the buffer */
+        private final AtomicLongArray slotSequences;
+        /** the sequence the next sent record will be given, only written by the sender */
+        private final AtomicLong head = new AtomicLong();
+        /** the sequence of the oldest record that has not been received */
+        private final AtomicLong tail = new AtomicLong();
+        /** The thread currently parked in {@link #awaitData(double)}, if any */
+        private volatile Thread waiter = null;
+        /** the {@link System#nanoTime()} each slot was pushed at, only written when instrumented */
+        private final long[] enqueueNanos;
+        /** Null until {@link #instrument()} is called */
+        private volatile ChannelStats stats = null;
+
+        private Receiver(WeakReference<PrimitiveChannel<R>> channel, int bufferSize, int width) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("bufferSize must be positive and non-zero");
+            }
+            this.channel = channel;
+            this.capacity = bufferSize;
+            this.width = width;
+            this.data = new double[bufferSize * width];
+            this.slotSequences = new AtomicLongArray(bufferSize);
+            this.enqueueNanos = new long[bufferSize];
+        }
+
+        /**
+         * Starts counting sends, receives, drops, occupancy and latency for this receiver.
+         * Calling this more than once returns the same stats.
+         *
+         * @return the stats for this receiver
+         */
+        public synchronized ChannelStats instrument() {
+            if (stats == null) {
+                stats = new ChannelStats(capacity);
+            }
+            return stats;
+        }
+
+        private void push(double[] record) {
+            final long seq = head.get();
+            final int slot = (int) (seq % capacity);
+            slotSequences.set(slot, (seq << 1) + 1);
+            // the record copy must not be reordered before the slot is marked as being written
+            VarHandle.releaseFence();
+            System.arraycopy(record, 0, data, slot * width, width);
+            final ChannelStats s = stats;
+            if (s != null) {
+                enqueueNanos[slot] = System.nanoTime();
+            }
+            slotSequences.set(slot, (seq << 1) + 2);
+            head.set(seq + 1);
+            if (s != null) {
+                final long behind = seq - tail.get();
+                s.recordSend(Math.min(behind + 1, capacity), behind >= capacity);
+            }
+        }
+
+        private boolean read(double[] out, boolean consume) {
+            while (true) {
+                final long t = tail.get();
+                final long h = head.get();
+                if (t >= h) {
+                    return false;
+                }
+                if (h - t > capacity) {
+                    // this receiver was lapped, skip the overwritten records
+                    tail.compareAndSet(t, h - capacity);
+                    continue;
+                }
+                final int slot = (int) (t % capacity);
+                final long expected = (t << 1) + 2;
+                if (slotSequences.get(slot) != expected) {
+                    tail.compareAndSet(t, t + 1);
+                    continue;
+                }
+                System.arraycopy(data, slot * width, out, 0, width);
+                final long enqueued = enqueueNanos[slot];
+                // the record copy must complete before the sequence is re-checked
+                VarHandle.acquireFence();
+                if (slotSequences.get(slot) != expected) {
+                    // the sender overwrote the slot while it was being copied
+                    tail.compareAndSet(t, t + 1);
+                    continue;
+                }
+                if (!consume) {
+                    return true;
+                }
+                if (tail.compareAndSet(t, t + 1)) {
+                    final ChannelStats s = stats;
+                    if (s != null) {
+                        s.recordReceive(System.nanoTime() - enqueued);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Copies the oldest record into {@code out} and removes it from the receiver
+         *
+         * @param out the record to copy into
+         * @return whether a record was received, if false {@code out} holds undefined data
+         */
+        public boolean recvInto(R out) {
+            return read(out.data(), true);
+        }
+
+        /**
+         * Copies the oldest record into {@code out} without removing it from the receiver
+         *
+         * @param out the record to copy into
+         * @return whether a record was inspected, if false {@code out} holds undefined data
+         */
+        public boolean inspectInto(R out) {
+            return read(out.data(), false);
+        }
+
+        /**
+         * @return whether the receiver has any content
+         */
+        public boolean hasData() {
+            return tail.get() < head.get();
+        }
+
+        /**
+         * Parks the calling thread until this receiver has data, the timeout elapses
+         * or the thread is interrupted. Only one thread can wait on a receiver at a time.
+         *
+         * @param timeoutSeconds the maximum amount of time to wait
+         * @return whether the receiver has data
+         * @see Channel.Receiver#awaitData(double)
+         */
+        public boolean awaitData(double timeoutSeconds) {
+            if (hasData()) {
+                return true;
+            }
+            final long deadline = System.nanoTime() + (long) (timeoutSeconds * 1_000_000_000.0);
+            waiter = Thread.currentThread();
+            try {
+                // re-check after publishing the waiter so a push that raced it is not missed
+                while (!hasData()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                return true;
+            } finally {
+                waiter = null;
+            }
+        }
+
+        /**
+         * Waits for data with {@link #awaitData(double)} and then copies the oldest record into {@code out}
+         *
+         * @param out the record to copy into
+         * @param timeoutSeconds the maximum amount of time to wait
+         * @return whether a record was received before the timeout elapsed
+         */
+        public boolean recvBlockingInto(R out, double timeoutSeconds) {
+            return awaitData(timeoutSeconds) && recvInto(out);
+        }
+
+        private void wakeWaiter() {
+            final Thread w = waiter;
+            if (w != null) {
+                LockSupport.unpark(w);
+            }
+        }
+
+        /**
+         * Closes the receiver, removing it from the channel
+         */
+        public void close() {
+            var c = channel.get();
+            if (c != null) {
+                c.popReceiver(this);
+            }
+        }
+
+        /**
+         * Re-opens the receiver, adding it back to the channel
+         */
+        public void open() {
+            var c = channel.get();
+            if (c != null) {
+                c.addReceiver(this);
+            }
+        }
+    }
+}
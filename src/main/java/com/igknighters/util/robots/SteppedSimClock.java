@@ -0,0 +1,78 @@
+package com.igknighters.util.robots;
+
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+
+/**
+ * Drives the HAL simulation clock from a dedicated thread instead of the wall clock.
+ *
+ * While running, HAL timing is paused and advanced with {@link SimHooks#stepTiming(double)}, which
+ * jumps from one notifier alarm to the next and waits for every notifier to finish before moving on.
+ * The robot loop, the swerve odometry {@link edu.wpi.first.wpilibj.Notifier} and anything else on a
+ * HAL notifier therefore run in lockstep under one virtual clock, as fast as the code allows and in
+ * the same order every run.
+ */
+public class SteppedSimClock {
+    private final double stepSeconds;
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    /**
+     * @param stepSeconds how much virtual time to advance per step, the order notifiers run in
+     *     does not depend on this
+     */
+    public SteppedSimClock(double stepSeconds) {
+        this.stepSeconds = stepSeconds;
+    }
+
+    /**
+     * Pauses HAL timing and starts stepping it
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        SimHooks.pauseTiming();
+        running = true;
+        thread = new Thread(this::run, "SteppedSimClock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops stepping and hands HAL timing back to the wall clock
+     *
+     * @throws IllegalStateException if the stepping thread is stuck in a step, timing is left paused
+     *     since resuming while a step is in progress would corrupt the HAL clock
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        boolean interrupted = false;
+        try {
+            // a notifier that never returns to waiting would block the step forever, don't wait on it forever too
+            thread.join(1000);
+            if (thread.isAlive()) {
+                thread.interrupt();
+                thread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            throw new IllegalStateException("SteppedSimClock is stuck in a step, leaving HAL timing paused");
+        }
+        thread = null;
+        SimHooks.resumeTiming();
+    }
+
+    private void run() {
+        while (running) {
+            SimHooks.stepTiming(stepSeconds);
+        }
+    }
+}
@@ -101,6 +101,7 @@ public abstract class UnitTestableRobot<R extends UnitTestableRobot<R>> extends
 
     private final Timer timer = new Timer();
     private double timeoutDuration = 30.0;
+    private boolean steppedTiming = false;
 
     private Mode lastMode = Mode.kNone;
     private boolean calledDsConnected = false;
@@ -140,25 +141,45 @@ public abstract class UnitTestableRobot<R extends UnitTestableRobot<R>> extends
         killswitch.set(true);
     }
 
+    /**
+     * Whether {@link #runTest(double)} runs on a {@link SteppedSimClock} instead of the wall clock,
+     * defaults to false. Stepped runs are deterministic and run as fast as the code allows,
+     * the timeout and {@link #getElapsedTime()} are then in simulated seconds.
+     */
+    public UnitTestableRobot<R> withSteppedTiming(boolean steppedTiming) {
+        this.steppedTiming = steppedTiming;
+        return this;
+    }
+
     public void runTest(double timeout) {
         this.timeoutDuration = timeout;
+        final SteppedSimClock clock = new SteppedSimClock(getPeriod());
+        if (steppedTiming && isSimulation()) {
+            clock.start();
+        }
         timer.start();
         try {
             this.startCompetition();
         } catch (UnitTestableRobotExited e) {
             // Expected
-        }
-        this.endCompetition();
-        this.close();
-        if (isUnitTest()) {
-            HAL.exitMain();
-            HAL.shutdown();
-            var cmdScheduler = CommandScheduler.getInstance();
-            cmdScheduler.cancelAll();
-            cmdScheduler.getActiveButtonLoop().clear();
-            cmdScheduler.getDefaultButtonLoop().clear();
-            cmdScheduler.clearComposedCommands();
-            cmdScheduler.unregisterAllSubsystems();
+        } finally {
+            // a timeout or failed assertion still has to stop the clock, later tests share the HAL
+            try {
+                this.endCompetition();
+                clock.stop();
+            } finally {
+                this.close();
+                if (isUnitTest()) {
+                    HAL.exitMain();
+                    HAL.shutdown();
+                    var cmdScheduler = CommandScheduler.getInstance();
+                    cmdScheduler.cancelAll();
+                    cmdScheduler.getActiveButtonLoop().clear();
+                    cmdScheduler.getDefaultButtonLoop().clear();
+                    cmdScheduler.clearComposedCommands();
+                    cmdScheduler.unregisterAllSubsystems();
+                }
+            }
         }
     }
 
@@ -0,0 +1,177 @@
+package com.igknighters;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+import com.igknighters.subsystems.vision.camera.Camera.VisionPoseEstimate;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Feeds the {@link Localizer} 250hz odometry and 4 cameras at 30fps with 30-100ms of latency,
+ * fusing every 20ms like the main loop does.
+ *
+ * The robot drives a circle at a fixed heading with wheels that read long, so odometry alone drifts
+ * and vision has to pull the estimate back. The test checks that it does,
+ * run {@link #main(String[])} to time {@link Localizer#fuse()}.
+ */
+public class LocalizerFusionBenchmark {
+    private static final int CAMERAS = 4;
+    private static final double CAMERA_FPS = 30.0;
+    private static final double MIN_LATENCY = 0.03;
+    private static final double MAX_LATENCY = 0.1;
+    private static final double ODOMETRY_HZ = 250.0;
+    private static final double STEP_SECONDS = 0.02;
+
+    private static final double RADIUS = 2.0;
+    private static final double ANGULAR_RATE = 0.8;
+    /** How much longer the wheels measure than the robot actually drives */
+    private static final double SLIP = 0.03;
+    private static final double VISION_NOISE = 0.02;
+    private static final double VISION_WEIGHT = 0.2;
+
+    private static final class Frame {
+        private final VisionPoseEstimate estimate;
+        private final double arrival;
+
+        private Frame(VisionPoseEstimate estimate, double arrival) {
+            this.estimate = estimate;
+            this.arrival = arrival;
+        }
+    }
+
+    private static final class Simulation {
+        private final Localizer localizer = new Localizer();
+        private final SwerveDriveSample sample = new SwerveDriveSample();
+        private final Random random = new Random(7);
+        private final boolean vision;
+        private final double[] nextCapture = new double[CAMERAS];
+        private final ArrayList<Frame> inFlight = new ArrayList<>();
+        private double time = 0.0;
+        private double nextOdometry = 0.0;
+        private long fuseNanos = 0;
+        private long fuseBytes = 0;
+        private int steps = 0;
+
+        private Simulation(boolean vision) {
+            this.vision = vision;
+            for (int i = 0; i < CAMERAS; i++) {
+                // the cameras aren't synchronized
+                nextCapture[i] = i / (CAMERA_FPS * CAMERAS);
+            }
+            localizer.reset(truth(0.0));
+        }
+
+        private static Pose2d truth(double time) {
+            final double angle = ANGULAR_RATE * time;
+            return new Pose2d(RADIUS * Math.cos(angle), RADIUS * Math.sin(angle), new Rotation2d());
+        }
+
+        private void sendOdometry(double timestamp) {
+            final double distance = RADIUS * ANGULAR_RATE * timestamp * (1.0 + SLIP);
+            final double direction = ANGULAR_RATE * timestamp + Math.PI / 2.0;
+            sample.setTimestamp(timestamp);
+            for (int m = 0; m < SwerveDriveSample.MODULE_COUNT; m++) {
+                sample.setModule(m, distance, direction);
+            }
+            sample.setGyroYawRads(0.0);
+            localizer.swerveDataSender().send(sample);
+        }
+
+        private void captureFrames() {
+            for (int i = 0; i < CAMERAS; i++) {
+                while (nextCapture[i] <= time) {
+                    final double capture = nextCapture[i];
+                    final Pose2d pose = truth(capture);
+                    final Pose2d noisy = new Pose2d(
+                        pose.getX() + random.nextGaussian() * VISION_NOISE,
+                        pose.getY() + random.nextGaussian() * VISION_NOISE,
+                        pose.getRotation()
+                    );
+                    inFlight.add(new Frame(
+                        new VisionPoseEstimate(
+                            i,
+                            new Pose3d(noisy),
+                            capture,
+                            VisionPoseEstimate.tagBit(i + 1),
+                            VISION_WEIGHT,
+                            3.0
+                        ),
+                        capture + MIN_LATENCY + random.nextDouble() * (MAX_LATENCY - MIN_LATENCY)
+                    ));
+                    nextCapture[i] += 1.0 / CAMERA_FPS;
+                }
+            }
+            for (int i = inFlight.size() - 1; i >= 0; i--) {
+                if (inFlight.get(i).arrival <= time) {
+                    localizer.visionDataSender().send(inFlight.remove(i).estimate);
+                }
+            }
+        }
+
+        private void step() {
+            time += STEP_SECONDS;
+            while (nextOdometry <= time) {
+                sendOdometry(nextOdometry);
+                nextOdometry += 1.0 / ODOMETRY_HZ;
+            }
+            if (vision) {
+                captureFrames();
+            }
+            final long bytes = allocatedBytes();
+            final long start = System.nanoTime();
+            localizer.fuse();
+            fuseNanos += System.nanoTime() - start;
+            fuseBytes += allocatedBytes() - bytes;
+            steps++;
+        }
+
+        private double error() {
+            return localizer.pose().getTranslation().getDistance(truth(nextOdometry - 1.0 / ODOMETRY_HZ).getTranslation());
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    public void testVisionCorrectsOdometryDrift() {
+        final Simulation odometryOnly = new Simulation(false);
+        final Simulation fused = new Simulation(true);
+        for (int i = 0; i < 500; i++) {
+            odometryOnly.step();
+            fused.step();
+        }
+        assertTrue(
+            fused.error() < odometryOnly.error() / 2.0,
+            "fused error " + fused.error() + " odometry only error " + odometryOnly.error()
+        );
+    }
+
+    public static void main(String[] args) {
+        for (int round = 0; round < 3; round++) {
+            final Simulation simulation = new Simulation(true);
+            // 60 seconds of driving
+            for (int i = 0; i < 3000; i++) {
+                simulation.step();
+            }
+            System.out.printf(
+                "round %d: %6.2f us %7.1f B per fuse, final error %.3f m%n",
+                round,
+                simulation.fuseNanos / 1000.0 / simulation.steps,
+                simulation.fuseBytes / (double) simulation.steps,
+                simulation.error()
+            );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.igknighters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+import com.igknighters.subsystems.vision.camera.Camera.VisionPoseEstimate;
+import com.igknighters.util.plumbing.Channel.Receiver;
+import com.igknighters.util.plumbing.Channel.ThreadSafetyMarker;
+import com.igknighters.util.plumbing.ChannelRecorder;
+import com.igknighters.util.plumbing.ChannelReplayer;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.util.datalog.DataLog;
+
+/**
+ * Records a localizer's channels to a log, replays the log into a fresh localizer
+ * and checks both fuse to the same pose.
+ */
+public class LocalizerReplayTest {
+    private static final int STEPS = 150;
+    private static final int ODOMETRY_PER_STEP = 5;
+    private static final double ODOMETRY_PERIOD = 0.004;
+    private static final double SPEED = 1.5;
+    /** How much longer the wheels measure than the robot actually drives */
+    private static final double SLIP = 0.05;
+
+    /**
+     * Drives a straight line with slipping wheels and a camera that sees the true pose 60ms late,
+     * fusing once per step. Frames always arrive before their coalescing group closes,
+     * so how replay batches the values between fusion steps must not change the result.
+     */
+    private static void drive(Localizer localizer) {
+        final SwerveDriveSample sample = new SwerveDriveSample();
+        for (int step = 0; step < STEPS; step++) {
+            final double stepStart = step * ODOMETRY_PER_STEP * ODOMETRY_PERIOD;
+            final double capture = stepStart - 0.06;
+            if (capture > 0.0 && step % 2 == 0) {
+                localizer.visionDataSender().send(new VisionPoseEstimate(
+                    0,
+                    new Pose3d(new Pose2d(SPEED * capture, 0.0, new Rotation2d())),
+                    capture,
+                    VisionPoseEstimate.tagBit(1),
+                    0.3,
+                    3.0
+                ));
+            }
+            for (int i = 0; i < ODOMETRY_PER_STEP; i++) {
+                final double timestamp = stepStart + i * ODOMETRY_PERIOD;
+                sample.setTimestamp(timestamp);
+                for (int m = 0; m < SwerveDriveSample.MODULE_COUNT; m++) {
+                    sample.setModule(m, SPEED * timestamp * (1.0 + SLIP), 0.0);
+                }
+                localizer.swerveDataSender().send(sample);
+            }
+            localizer.velocityChannel().sender().send(new ChassisSpeeds(SPEED, 0.0, 0.0));
+            localizer.fuse();
+        }
+    }
+
+    @Test
+    public void testReplayMatchesRecording(@TempDir Path dir) throws IOException {
+        final Localizer recorded = new Localizer();
+        final DataLog log = new DataLog(dir.toString(), "replay.wpilog");
+        final ChannelRecorder recorder = new ChannelRecorder(log);
+        recorded.recordChannels(recorder);
+        drive(recorded);
+        log.close();
+
+        final Localizer replayed = new Localizer();
+        final Receiver<ChassisSpeeds> velocities = replayed.velocityChannel()
+            .openReceiver(STEPS, ThreadSafetyMarker.SEQUENTIAL);
+        final ChannelReplayer replayer = new ChannelReplayer(dir.resolve("replay.wpilog").toString());
+        replayed.replayChannels(replayer);
+        // log time is wall time while recording, so these steps don't line up with the recorded ones
+        final long sent = replayer.run(0.001, time -> replayed.fuse());
+
+        int velocityCount = 0;
+        while (velocities.hasData()) {
+            velocities.recv();
+            velocityCount++;
+        }
+        assertEquals(STEPS, velocityCount);
+        assertTrue(sent > STEPS * ODOMETRY_PER_STEP);
+
+        final Pose2d expected = recorded.pose();
+        final Pose2d actual = replayed.pose();
+        // the wheels alone would put the robot past the end of the line
+        final double end = SPEED * (STEPS * ODOMETRY_PER_STEP - 1) * ODOMETRY_PERIOD;
+        assertTrue(expected.getX() < end * (1.0 + SLIP), "vision never corrected " + expected);
+        assertEquals(expected.getX(), actual.getX());
+        assertEquals(expected.getY(), actual.getY());
+        assertEquals(expected.getRotation().getRadians(), actual.getRotation().getRadians());
+        assertEquals(recorded.poseAt(end - 0.05), replayed.poseAt(end - 0.05));
+    }
+}
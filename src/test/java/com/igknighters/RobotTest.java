@@ -1,5 +1,8 @@
 package com.igknighters;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import org.junit.jupiter.api.Test;
 
 import java.util.Optional;
@@ -14,6 +17,7 @@ import com.igknighters.constants.RobotConfig.RobotID;
 import com.igknighters.subsystems.swerve.Swerve;
 
 import edu.wpi.first.hal.AllianceStationID;
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.wpilibj.simulation.DriverStationSim;
 
 public class RobotTest {
@@ -31,8 +35,36 @@ public class RobotTest {
         }
     }
 
+    /**
+     * @param finalPose the fused pose once the robot stopped
+     * @param elapsedSeconds the robot's elapsed time when the auto finished
+     * @param wallSeconds the wall clock time the whole run took
+     */
+    private static record AutoRun(Pose2d finalPose, double elapsedSeconds, double wallSeconds) {}
+
     @Test
     public void testAuto() {
+        runTestAuto(false);
+    }
+
+    @Test
+    public void testSteppedAutoIsRepeatable() {
+        final AutoRun first = runTestAuto(true);
+        final AutoRun second = runTestAuto(true);
+
+        // bit for bit, not within Pose2d's equality tolerance
+        assertEquals(first.finalPose().getX(), second.finalPose().getX());
+        assertEquals(first.finalPose().getY(), second.finalPose().getY());
+        assertEquals(first.finalPose().getRotation().getRadians(), second.finalPose().getRotation().getRadians());
+        assertEquals(first.elapsedSeconds(), second.elapsedSeconds());
+        // the first run pays for class loading, the second should be quicker than real time
+        assertTrue(
+            second.wallSeconds() < second.elapsedSeconds(),
+            "Stepped auto took " + second.wallSeconds() + "s to simulate " + second.elapsedSeconds() + "s"
+        );
+    }
+
+    private static AutoRun runTestAuto(boolean steppedTiming) {
         final Robot robot = new Robot(RobotID.UNIT_TEST);
 
         final Optional<Trajectory<SwerveSample>> optTraj = Choreo.loadTrajectory("TEST");
@@ -62,12 +94,14 @@ public class RobotTest {
         DriverStationSim.setAutonomous(true);
         DriverStationSim.setEnabled(true);
 
+        final double[] finishedAt = {Double.NaN};
         robot.withAutonomousPeriodicTest(robo -> {
             boolean isFinished = robo.localizer.pose()
                     .getTranslation()
                     .getDistance(traj.getFinalPose(false).getTranslation()) < translationTolerance;
 
             if (isFinished) {
+                finishedAt[0] = robo.getElapsedTime();
                 robo.finishUnitTestRobot();
             } else if (robo.getElapsedTime() > 1.5) {
                 throw new RuntimeException(
@@ -76,11 +110,18 @@ public class RobotTest {
             }
         });
 
+        robot.withSteppedTiming(steppedTiming);
+
+        final long start = System.nanoTime();
         robot.runTest(3);
+        final double wallSeconds = (System.nanoTime() - start) / 1e9;
+        final Pose2d finalPose = robot.localizer.pose();
 
         robot.close();
 
         System.gc();
+
+        return new AutoRun(finalPose, finishedAt[0], wallSeconds);
     }
 
     // @Test
@@ -0,0 +1,278 @@
+package com.igknighters.subsystems.swerve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.igknighters.constants.ConstValues;
+import com.igknighters.constants.ConstValues.kSwerve;
+import com.igknighters.subsystems.swerve.SwerveSetpointProcessor.SwerveSetpoint;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Checks {@link SwerveSetpointProcessor} against the {@link LegacySwerveSetpointProcessor} it replaced,
+ * run {@link #main(String[])} to time both.
+ *
+ * The rewrite keeps its previous setpoint between calls where the original always generated from rest,
+ * so the legacy solver is handed the rewrite's previous setpoint every step to compare the math alone.
+ * The test drives forward so no module ever points near its atan2 branch cut and expects every step to match.
+ * Commands in every direction can land the regula falsi right on the cut where the legacy solver disagrees
+ * with itself when its previous setpoint is nudged by one ulp, {@link #main(String[])} reports those.
+ */
+public class SwerveSetpointProcessorBenchmark {
+    private static final int MODULE_COUNT = 4;
+    private static final double TOLERANCE = 1e-9;
+
+    /** The rewrite's setpoint as the legacy solver's, module angles within pi of zero like {@link Rotation2d} */
+    private static LegacySwerveSetpointProcessor.SwerveSetpoint toLegacy(SwerveSetpoint setpoint, boolean nudge) {
+        final SwerveModuleState[] states = new SwerveModuleState[MODULE_COUNT];
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            final double speed = setpoint.moduleSpeed(i);
+            final double angle = setpoint.moduleAngleRads(i);
+            states[i] = new SwerveModuleState(
+                nudge ? Math.nextUp(speed) : speed,
+                new Rotation2d(nudge ? Math.nextUp(angle) : angle)
+            );
+        }
+        return new LegacySwerveSetpointProcessor.SwerveSetpoint(
+            new ChassisSpeeds(nudge ? Math.nextUp(setpoint.vx()) : setpoint.vx(), setpoint.vy(), setpoint.omega()),
+            states
+        );
+    }
+
+    private static double angleError(double a, double b) {
+        return Math.abs(Math.atan2(Math.sin(a - b), Math.cos(a - b)));
+    }
+
+    private static boolean matches(LegacySwerveSetpointProcessor.SwerveSetpoint legacy, SwerveSetpoint setpoint) {
+        final ChassisSpeeds speeds = legacy.chassisSpeeds();
+        if (Math.abs(speeds.vxMetersPerSecond - setpoint.vx()) > TOLERANCE
+                || Math.abs(speeds.vyMetersPerSecond - setpoint.vy()) > TOLERANCE
+                || Math.abs(speeds.omegaRadiansPerSecond - setpoint.omega()) > TOLERANCE) {
+            return false;
+        }
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            final SwerveModuleState state = legacy.moduleStates()[i];
+            if (Math.abs(state.speedMetersPerSecond - setpoint.moduleSpeed(i)) > TOLERANCE
+                    || angleError(state.angle.getRadians(), setpoint.moduleAngleRads(i)) > TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(
+            LegacySwerveSetpointProcessor.SwerveSetpoint legacy,
+            LegacySwerveSetpointProcessor.SwerveSetpoint other) {
+        final ChassisSpeeds speeds = legacy.chassisSpeeds();
+        final ChassisSpeeds otherSpeeds = other.chassisSpeeds();
+        if (Math.abs(speeds.vxMetersPerSecond - otherSpeeds.vxMetersPerSecond) > TOLERANCE
+                || Math.abs(speeds.vyMetersPerSecond - otherSpeeds.vyMetersPerSecond) > TOLERANCE
+                || Math.abs(speeds.omegaRadiansPerSecond - otherSpeeds.omegaRadiansPerSecond) > TOLERANCE) {
+            return false;
+        }
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            final SwerveModuleState state = legacy.moduleStates()[i];
+            final SwerveModuleState otherState = other.moduleStates()[i];
+            if (Math.abs(state.speedMetersPerSecond - otherState.speedMetersPerSecond) > TOLERANCE
+                    || angleError(state.angle.getRadians(), otherState.angle.getRadians()) > TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Holds a forward command for a while, with the occasional jump or dropped rotation.
+     * Strafe and rotation stay small enough that every module keeps pointing forward.
+     */
+    private static void nextForwardCommand(Random random, double[] command) {
+        if (random.nextDouble() < 0.1) {
+            command[0] = 1.5 + random.nextDouble() * 2.5;
+            command[1] = (random.nextDouble() * 2.0 - 1.0) * 1.0;
+            command[2] = (random.nextDouble() * 2.0 - 1.0) * 1.0;
+        } else if (random.nextDouble() < 0.05) {
+            command[2] = 0.0;
+        }
+    }
+
+    /**
+     * Holds a command for a while like a driver or path would, with the occasional jump,
+     * full stop, reversal or dropped rotation to hit the special cases.
+     */
+    private static void nextCommand(Random random, double[] command) {
+        if (random.nextDouble() < 0.1) {
+            command[0] = (random.nextDouble() * 2.0 - 1.0) * 6.0;
+            command[1] = (random.nextDouble() * 2.0 - 1.0) * 6.0;
+            command[2] = (random.nextDouble() * 2.0 - 1.0) * 8.0;
+        } else if (random.nextDouble() < 0.05) {
+            command[0] = 0.0;
+            command[1] = 0.0;
+            command[2] = 0.0;
+        } else if (random.nextDouble() < 0.05) {
+            command[0] = -command[0];
+            command[1] = -command[1];
+        } else if (random.nextDouble() < 0.05) {
+            command[2] = 0.0;
+        }
+    }
+
+    /**
+     * @return the steps the rewrite disagrees with the legacy solver on,
+     *     then the steps the legacy solver disagrees with itself on when its previous setpoint is nudged
+     */
+    private static int[] mismatches(int steps) {
+        final Random random = new Random(7);
+        final SwerveSetpointProcessor processor = new SwerveSetpointProcessor();
+        final LegacySwerveSetpointProcessor legacy = new LegacySwerveSetpointProcessor();
+        final LegacySwerveSetpointProcessor nudged = new LegacySwerveSetpointProcessor();
+        final double[] command = new double[3];
+        final int[] mismatches = new int[2];
+        // a fresh processor generates from rest
+        SwerveSetpoint previous = processor.processSetpoint(new ChassisSpeeds());
+        for (int k = 0; k < steps; k++) {
+            nextCommand(random, command);
+            final ChassisSpeeds desired = new ChassisSpeeds(command[0], command[1], command[2]);
+            legacy.setPrevious(toLegacy(previous, false));
+            nudged.setPrevious(toLegacy(previous, true));
+            final LegacySwerveSetpointProcessor.SwerveSetpoint expected = legacy.processSetpoint(desired);
+            final LegacySwerveSetpointProcessor.SwerveSetpoint nudgedExpected = nudged.processSetpoint(desired);
+            previous = processor.processSetpoint(desired);
+            if (!matches(expected, previous)) {
+                mismatches[0]++;
+            }
+            if (!matches(expected, nudgedExpected)) {
+                mismatches[1]++;
+            }
+        }
+        return mismatches;
+    }
+
+    @Test
+    public void testMatchesLegacySolver() {
+        final Random random = new Random(7);
+        final SwerveSetpointProcessor processor = new SwerveSetpointProcessor();
+        final LegacySwerveSetpointProcessor legacy = new LegacySwerveSetpointProcessor();
+        final double[] command = {2.0, 0.0, 0.0};
+        SwerveSetpoint previous = processor.processSetpoint(new ChassisSpeeds());
+        for (int k = 0; k < 5_000; k++) {
+            nextForwardCommand(random, command);
+            final ChassisSpeeds desired = new ChassisSpeeds(command[0], command[1], command[2]);
+            legacy.setPrevious(toLegacy(previous, false));
+            final LegacySwerveSetpointProcessor.SwerveSetpoint expected = legacy.processSetpoint(desired);
+            previous = processor.processSetpoint(desired);
+            assertTrue(matches(expected, previous), "step " + k + " differs from the legacy solver for " + desired);
+        }
+    }
+
+    @Test
+    public void testKeepsPreviousSetpoint() {
+        final SwerveSetpointProcessor processor = new SwerveSetpointProcessor();
+        final LegacySwerveSetpointProcessor legacy = new LegacySwerveSetpointProcessor();
+        final ChassisSpeeds desired = new ChassisSpeeds(kSwerve.MAX_DRIVE_VELOCITY, 0.0, 0.0);
+        final double maxStep = kSwerve.MAX_DRIVE_ACCELERATION * 5.0 * ConstValues.PERIODIC_TIME;
+
+        // the legacy solver never moved past its first step
+        final double legacyFirst = legacy.processSetpoint(desired).chassisSpeeds().vxMetersPerSecond;
+        assertEquals(legacyFirst, legacy.processSetpoint(desired).chassisSpeeds().vxMetersPerSecond, 0.0);
+
+        double previous = 0.0;
+        for (int i = 0; i < 500; i++) {
+            final double vx = processor.processSetpoint(desired).vx();
+            assertTrue(vx - previous <= maxStep + 1e-6, "accelerated " + (vx - previous) + " in one step");
+            previous = vx;
+        }
+        assertEquals(kSwerve.MAX_DRIVE_VELOCITY, previous, TOLERANCE);
+
+        processor.reset();
+        assertEquals(legacyFirst, processor.processSetpoint(desired).vx(), TOLERANCE);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Times a setpoint through the rewrite, on both overloads, and through the legacy solver
+     * fed its own previous setpoint so both do the same work.
+     */
+    public static void main(String[] args) {
+        final int ops = 2_000_000;
+        final Random random = new Random(42);
+        final ChassisSpeeds[] commands = new ChassisSpeeds[4096];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new ChassisSpeeds(
+                (random.nextDouble() * 2.0 - 1.0) * 6.0,
+                (random.nextDouble() * 2.0 - 1.0) * 6.0,
+                (random.nextDouble() * 2.0 - 1.0) * 8.0
+            );
+        }
+        final SwerveSetpointProcessor processor = new SwerveSetpointProcessor();
+        final LegacySwerveSetpointProcessor legacy = new LegacySwerveSetpointProcessor();
+
+        double sink = 0.0;
+        for (int round = 0; round < 3; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                final ChassisSpeeds command = commands[i & (commands.length - 1)];
+                sink += processor.processSetpoint(
+                    command.vxMetersPerSecond,
+                    command.vyMetersPerSecond,
+                    command.omegaRadiansPerSecond,
+                    ConstValues.PERIODIC_TIME
+                ).vx();
+            }
+            final double primitiveNanos = (System.nanoTime() - start) / (double) ops;
+            final double primitiveBytes = (allocatedBytes() - bytes) / (double) ops;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += processor.processSetpoint(commands[i & (commands.length - 1)]).vx();
+            }
+            final double speedsNanos = (System.nanoTime() - start) / (double) ops;
+            final double speedsBytes = (allocatedBytes() - bytes) / (double) ops;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                final LegacySwerveSetpointProcessor.SwerveSetpoint setpoint =
+                    legacy.processSetpoint(commands[i & (commands.length - 1)]);
+                legacy.setPrevious(setpoint);
+                sink += setpoint.chassisSpeeds().vxMetersPerSecond;
+            }
+            final double legacyNanos = (System.nanoTime() - start) / (double) ops;
+            final double legacyBytes = (allocatedBytes() - bytes) / (double) ops;
+
+            System.out.printf(
+                "round %d: primitives %6.1f ns %6.1f B, chassis speeds %6.1f ns %6.1f B, legacy %6.1f ns %7.1f B per setpoint%n",
+                round,
+                primitiveNanos,
+                primitiveBytes,
+                speedsNanos,
+                speedsBytes,
+                legacyNanos,
+                legacyBytes
+            );
+        }
+
+        final int steps = 500_000;
+        final int[] mismatches = mismatches(steps);
+        System.out.printf(
+            "%d of %d steps differ from the legacy solver, it differs from itself on %d when nudged by one ulp (%.0f)%n",
+            mismatches[0],
+            steps,
+            mismatches[1],
+            sink
+        );
+    }
+}
@@ -0,0 +1,211 @@
+package com.igknighters.util.geom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.igknighters.subsystems.swerve.odometryThread.SwerveDriveSample;
+import com.igknighters.subsystems.swerve.odometryThread.SwerveSampleKinematics;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Checks {@link PrimitiveSE2} and {@link SwerveSampleKinematics} against the WPILib geometry
+ * and EJML kinematics they replace, run {@link #main(String[])} to compare an odometry step on both paths.
+ */
+public class PrimitiveSE2Benchmark {
+    private static final int CASES = 100_000;
+    private static final double TOLERANCE = 1e-9;
+
+    /** Not square on purpose so the normal matrix has off diagonal terms */
+    private static final Translation2d[] MODULE_OFFSETS = {
+        new Translation2d(0.31, 0.27),
+        new Translation2d(0.31, -0.27),
+        new Translation2d(-0.25, 0.27),
+        new Translation2d(-0.25, -0.27)
+    };
+
+    private static Pose2d randomPose(Random random) {
+        return new Pose2d(random.nextGaussian(), random.nextGaussian(), new Rotation2d(random.nextGaussian() * 3.0));
+    }
+
+    private static void randomSamples(Random random, SwerveDriveSample previous, SwerveDriveSample current) {
+        for (int m = 0; m < SwerveDriveSample.MODULE_COUNT; m++) {
+            final double distance = random.nextGaussian();
+            previous.setModule(m, distance, random.nextGaussian());
+            current.setModule(m, distance + random.nextGaussian() * 0.05, random.nextGaussian());
+        }
+    }
+
+    private static SwerveModulePosition[] deltas(SwerveDriveSample previous, SwerveDriveSample current) {
+        final SwerveModulePosition[] deltas = new SwerveModulePosition[SwerveDriveSample.MODULE_COUNT];
+        for (int m = 0; m < deltas.length; m++) {
+            deltas[m] = new SwerveModulePosition(
+                current.moduleDistance(m) - previous.moduleDistance(m),
+                new Rotation2d(current.moduleAngleRads(m))
+            );
+        }
+        return deltas;
+    }
+
+    @Test
+    public void testExpMatchesPose2d() {
+        final Random random = new Random(1);
+        final double[] out = new double[PrimitiveSE2.POSE_LENGTH];
+        for (int i = 0; i < CASES; i++) {
+            final Pose2d pose = randomPose(random);
+            // every third twist is a straight line to cover the small angle branch
+            final Twist2d twist = new Twist2d(
+                random.nextGaussian(),
+                random.nextGaussian(),
+                i % 3 == 0 ? 0.0 : random.nextGaussian()
+            );
+            final Pose2d expected = pose.exp(twist);
+            PrimitiveSE2.exp(
+                pose.getX(), pose.getY(), pose.getRotation().getCos(), pose.getRotation().getSin(),
+                twist.dx, twist.dy, twist.dtheta,
+                out
+            );
+            assertEquals(expected.getX(), out[PrimitiveSE2.X], TOLERANCE);
+            assertEquals(expected.getY(), out[PrimitiveSE2.Y], TOLERANCE);
+            assertEquals(expected.getRotation().getCos(), out[PrimitiveSE2.COS], TOLERANCE);
+            assertEquals(expected.getRotation().getSin(), out[PrimitiveSE2.SIN], TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testLogMatchesPose2d() {
+        final Random random = new Random(2);
+        final double[] out = new double[PrimitiveSE2.TWIST_LENGTH];
+        for (int i = 0; i < CASES; i++) {
+            final Pose2d start = randomPose(random);
+            final Pose2d end = randomPose(random);
+            final Twist2d expected = start.log(end);
+            PrimitiveSE2.log(
+                start.getX(), start.getY(), start.getRotation().getCos(), start.getRotation().getSin(),
+                end.getX(), end.getY(), end.getRotation().getCos(), end.getRotation().getSin(),
+                out
+            );
+            // dividing by (cos - 1) loses digits near no turn and a half turn on both paths
+            final double angle = Math.abs(expected.dtheta);
+            final double tolerance = angle < 1e-3 || angle > Math.PI - 1e-3 ? 1e-6 : TOLERANCE;
+            assertEquals(expected.dx, out[PrimitiveSE2.DX], tolerance);
+            assertEquals(expected.dy, out[PrimitiveSE2.DY], tolerance);
+            assertEquals(expected.dtheta, out[PrimitiveSE2.DTHETA], tolerance);
+        }
+    }
+
+    @Test
+    public void testTwistMatchesSwerveDriveKinematics() {
+        final Random random = new Random(3);
+        final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(MODULE_OFFSETS);
+        final SwerveSampleKinematics sampleKinematics = new SwerveSampleKinematics(MODULE_OFFSETS);
+        final SwerveDriveSample previous = new SwerveDriveSample();
+        final SwerveDriveSample current = new SwerveDriveSample();
+        final double[] out = new double[PrimitiveSE2.TWIST_LENGTH];
+        for (int i = 0; i < CASES; i++) {
+            randomSamples(random, previous, current);
+            final Twist2d expected = kinematics.toTwist2d(deltas(previous, current));
+            sampleKinematics.toTwist(previous, current, out);
+            assertEquals(expected.dx, out[PrimitiveSE2.DX], TOLERANCE);
+            assertEquals(expected.dy, out[PrimitiveSE2.DY], TOLERANCE);
+            assertEquals(expected.dtheta, out[PrimitiveSE2.DTHETA], TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testChassisSpeedsMatchSwerveDriveKinematics() {
+        final Random random = new Random(4);
+        final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(MODULE_OFFSETS);
+        final SwerveSampleKinematics sampleKinematics = new SwerveSampleKinematics(MODULE_OFFSETS);
+        final double[] speeds = new double[SwerveDriveSample.MODULE_COUNT];
+        final double[] angles = new double[SwerveDriveSample.MODULE_COUNT];
+        final SwerveModuleState[] states = new SwerveModuleState[SwerveDriveSample.MODULE_COUNT];
+        final double[] out = new double[PrimitiveSE2.TWIST_LENGTH];
+        for (int i = 0; i < CASES; i++) {
+            for (int m = 0; m < states.length; m++) {
+                speeds[m] = random.nextGaussian() * 3.0;
+                angles[m] = random.nextGaussian() * 3.0;
+                states[m] = new SwerveModuleState(speeds[m], new Rotation2d(angles[m]));
+            }
+            final ChassisSpeeds expected = kinematics.toChassisSpeeds(states);
+            sampleKinematics.toChassisSpeeds(speeds, angles, out);
+            assertEquals(expected.vxMetersPerSecond, out[PrimitiveSE2.DX], TOLERANCE);
+            assertEquals(expected.vyMetersPerSecond, out[PrimitiveSE2.DY], TOLERANCE);
+            assertEquals(expected.omegaRadiansPerSecond, out[PrimitiveSE2.DTHETA], TOLERANCE);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Times one odometry step, module deltas to a twist applied to the pose, on the WPILib path
+     * and on the primitive path.
+     */
+    public static void main(String[] args) {
+        final int steps = 2_000_000;
+        final Random random = new Random(5);
+        final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(MODULE_OFFSETS);
+        final SwerveSampleKinematics sampleKinematics = new SwerveSampleKinematics(MODULE_OFFSETS);
+        final SwerveDriveSample[] previous = new SwerveDriveSample[1024];
+        final SwerveDriveSample[] current = new SwerveDriveSample[previous.length];
+        for (int i = 0; i < previous.length; i++) {
+            previous[i] = new SwerveDriveSample();
+            current[i] = new SwerveDriveSample();
+            randomSamples(random, previous[i], current[i]);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            Pose2d pose = new Pose2d();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                final int s = i % previous.length;
+                pose = pose.exp(kinematics.toTwist2d(deltas(previous[s], current[s])));
+            }
+            final double wpilibNanos = (System.nanoTime() - start) / (double) steps;
+            final double wpilibBytes = (allocatedBytes() - bytes) / (double) steps;
+
+            final double[] twist = new double[PrimitiveSE2.TWIST_LENGTH];
+            final double[] primitive = {0.0, 0.0, 1.0, 0.0};
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                final int s = i % previous.length;
+                sampleKinematics.toTwist(previous[s], current[s], twist);
+                PrimitiveSE2.exp(
+                    primitive[PrimitiveSE2.X], primitive[PrimitiveSE2.Y],
+                    primitive[PrimitiveSE2.COS], primitive[PrimitiveSE2.SIN],
+                    twist[PrimitiveSE2.DX], twist[PrimitiveSE2.DY], twist[PrimitiveSE2.DTHETA],
+                    primitive
+                );
+            }
+            final double primitiveNanos = (System.nanoTime() - start) / (double) steps;
+            final double primitiveBytes = (allocatedBytes() - bytes) / (double) steps;
+
+            System.out.printf(
+                "round %d: wpilib %6.1f ns %6.1f B per step, primitive %6.1f ns %6.1f B per step, final x %.3f vs %.3f%n",
+                round,
+                wpilibNanos,
+                wpilibBytes,
+                primitiveNanos,
+                primitiveBytes,
+                pose.getX(),
+                primitive[PrimitiveSE2.X]
+            );
+        }
+    }
+}
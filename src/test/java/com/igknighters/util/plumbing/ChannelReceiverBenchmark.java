@@ -0,0 +1,328 @@
+package com.igknighters.util.plumbing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import com.igknighters.util.plumbing.Channel.Receiver;
+import com.igknighters.util.plumbing.Channel.ThreadSafetyMarker;
+
+/**
+ * Compares the lock-free channel receivers against the lock based receiver they replaced.
+ *
+ * The single threaded tests pin down what a receiver hands back after every send, the threaded ones
+ * check that no receiver ever hands a producer's values back out of order,
+ * run {@link #main(String[])} for the throughput comparison.
+ */
+public class ChannelReceiverBenchmark {
+    private static final int BUFFER_SIZE = 32;
+    private static final ThreadSafetyMarker[] LOCK_FREE = {
+        ThreadSafetyMarker.SINGLE_PRODUCER,
+        ThreadSafetyMarker.CONCURRENT
+    };
+
+    /**
+     * The receiver the lock-free ones replaced, every push and receive takes the same lock.
+     * Wired up through a reactor so senders push into it on their own thread like a real receiver.
+     */
+    private static final class LockedReceiver<T> implements Consumer<T> {
+        private final ReentrantLock lock = new ReentrantLock(false);
+        private final Object[] buffer;
+        private int newestIndex = 0;
+        private int oldestIndex = 0;
+
+        private LockedReceiver(int bufferSize) {
+            buffer = new Object[bufferSize];
+        }
+
+        @Override
+        public void accept(T newValue) {
+            lock.lock();
+            try {
+                buffer[newestIndex] = newValue;
+                newestIndex = (newestIndex + 1) % buffer.length;
+                if (newestIndex == oldestIndex) {
+                    oldestIndex = (oldestIndex + 1) % buffer.length;
+                    // the lapped value is dropped, the original left it to be received out of order
+                    buffer[newestIndex] = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T recv() {
+            lock.lock();
+            try {
+                T value = (T) buffer[oldestIndex];
+                if (value != null) {
+                    buffer[oldestIndex] = null;
+                    oldestIndex = (oldestIndex + 1) % buffer.length;
+                }
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Result {
+        private final double nanosPerSend;
+        private final long received;
+
+        private Result(double nanosPerSend, long received) {
+            this.nanosPerSend = nanosPerSend;
+            this.received = received;
+        }
+    }
+
+    /**
+     * Sends {@code [producer, sequence]} pairs from every producer while one consumer drains,
+     * failing if any producer's values come out of order.
+     */
+    private static Result run(int producers, long sendsPerProducer, ThreadSafetyMarker marker) throws InterruptedException {
+        final Channel<long[]> channel = new Channel<>();
+        final Receiver<long[]> receiver;
+        final LockedReceiver<long[]> locked;
+        if (marker == null) {
+            locked = new LockedReceiver<>(BUFFER_SIZE);
+            receiver = channel.openReactor(locked);
+        } else {
+            locked = null;
+            receiver = channel.openReceiver(BUFFER_SIZE, marker);
+        }
+
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(() -> {
+                for (long i = 0; i < sendsPerProducer; i++) {
+                    channel.sender().send(new long[] {producer, i});
+                }
+            });
+        }
+
+        final long[] last = new long[producers];
+        Arrays.fill(last, -1);
+        long received = 0;
+        final long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        boolean alive = true;
+        while (alive) {
+            alive = false;
+            for (Thread thread : threads) {
+                alive |= thread.isAlive();
+            }
+            while (true) {
+                final long[] value = locked == null ? receiver.recv() : locked.recv();
+                if (value == null) {
+                    break;
+                }
+                received++;
+                final int producer = (int) value[0];
+                if (value[1] <= last[producer]) {
+                    throw new AssertionError(
+                        "producer " + producer + " sent " + value[1] + " after " + last[producer]);
+                }
+                last[producer] = value[1];
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the channel only weakly holds its receivers
+        Reference.reachabilityFence(receiver);
+        return new Result(elapsed / (double) (producers * sendsPerProducer), received);
+    }
+
+    @Test
+    public void testReceivesEverySendUntilFull() {
+        for (ThreadSafetyMarker marker : LOCK_FREE) {
+            final Channel<Integer> channel = new Channel<>();
+            final Receiver<Integer> receiver = channel.openReceiver(4, marker);
+            assertFalse(receiver.hasData());
+            assertNull(receiver.recv());
+            for (int i = 0; i < 4; i++) {
+                channel.sender().send(i);
+            }
+            for (int i = 0; i < 4; i++) {
+                assertTrue(receiver.hasData());
+                assertEquals(i, receiver.recv());
+            }
+            assertFalse(receiver.hasData());
+            assertNull(receiver.recv());
+
+            // the buffer wraps without losing anything as long as it is drained in time
+            for (int i = 4; i < 20; i++) {
+                channel.sender().send(i);
+                assertEquals(i, receiver.recv());
+            }
+            assertNull(receiver.recv());
+        }
+    }
+
+    @Test
+    public void testLappedReceiverSkipsToNewest() {
+        for (ThreadSafetyMarker marker : LOCK_FREE) {
+            final Channel<Integer> channel = new Channel<>();
+            final Receiver<Integer> receiver = channel.openReceiver(4, marker);
+            channel.sender().send(0);
+            assertEquals(0, receiver.recv());
+            for (int i = 1; i <= 11; i++) {
+                channel.sender().send(i);
+            }
+            // only the newest values that fit survive, still oldest first
+            for (int i = 8; i <= 11; i++) {
+                assertEquals(i, receiver.recv());
+            }
+            assertNull(receiver.recv());
+            channel.sender().send(12);
+            assertEquals(12, receiver.recv());
+        }
+    }
+
+    @Test
+    public void testInspectDoesNotConsume() {
+        for (ThreadSafetyMarker marker : LOCK_FREE) {
+            final Channel<Integer> channel = new Channel<>();
+            final Receiver<Integer> receiver = channel.openReceiver(4, marker);
+            assertNull(receiver.inspect());
+            channel.sender().send(1);
+            channel.sender().send(2);
+            assertEquals(1, receiver.inspect());
+            assertEquals(1, receiver.inspect());
+            assertEquals(1, receiver.recv());
+            assertEquals(2, receiver.inspect());
+            assertEquals(2, receiver.recv());
+            assertNull(receiver.inspect());
+
+            // inspecting a lapped receiver skips the overwritten values just like receiving
+            for (int i = 3; i <= 9; i++) {
+                channel.sender().send(i);
+            }
+            assertEquals(6, receiver.inspect());
+            assertEquals(6, receiver.recv());
+        }
+    }
+
+    @Test
+    public void testAwaitDataWakesOnSend() throws InterruptedException {
+        final Channel<Integer> channel = new Channel<>();
+        final Receiver<Integer> receiver = channel.openReceiver(4, ThreadSafetyMarker.CONCURRENT);
+
+        // nothing is sent, it has to give up at the timeout
+        assertFalse(receiver.awaitData(0.01));
+
+        channel.sender().send(1);
+        assertTrue(receiver.awaitData(0.0));
+        assertEquals(1, receiver.recv());
+
+        final Thread waiting = Thread.currentThread();
+        final Thread sender = new Thread(() -> {
+            // only send once the receiving thread has parked
+            while (waiting.getState() != Thread.State.TIMED_WAITING) {
+                Thread.onSpinWait();
+            }
+            channel.sender().send(2);
+        });
+        sender.start();
+        final long start = System.nanoTime();
+        final boolean woke = receiver.awaitData(10.0);
+        final double waited = (System.nanoTime() - start) / 1e9;
+        sender.join();
+        assertTrue(woke);
+        assertTrue(waited < 5.0, "waited " + waited + "s for a send");
+        assertEquals(2, receiver.recv());
+
+        // an interrupted thread stops waiting without data
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(receiver.awaitData(10.0));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testSingleProducerOrdering() throws InterruptedException {
+        final Result result = run(1, 10_000, ThreadSafetyMarker.SINGLE_PRODUCER);
+        assertTrue(result.received > 0 && result.received <= 10_000);
+    }
+
+    @Test
+    public void testConcurrentOrdering() throws InterruptedException {
+        final Result result = run(4, 10_000, ThreadSafetyMarker.CONCURRENT);
+        assertTrue(result.received > 0 && result.received <= 40_000);
+    }
+
+    /**
+     * Sends and receives one value at a time on one thread, the cost of the receiver itself
+     * without any contention.
+     */
+    private static double uncontended(long rounds, ThreadSafetyMarker marker) {
+        final Channel<Long> channel = new Channel<>();
+        final Receiver<Long> receiver;
+        final LockedReceiver<Long> locked;
+        if (marker == null) {
+            locked = new LockedReceiver<>(BUFFER_SIZE);
+            receiver = channel.openReactor(locked);
+        } else {
+            locked = null;
+            receiver = channel.openReceiver(BUFFER_SIZE, marker);
+        }
+        final Long value = 42L;
+        long sink = 0;
+        final long start = System.nanoTime();
+        for (long i = 0; i < rounds; i++) {
+            channel.sender().send(value);
+            sink += locked == null ? receiver.recv() : locked.recv();
+        }
+        final long elapsed = System.nanoTime() - start;
+        Reference.reachabilityFence(receiver);
+        if (sink != 42L * rounds) {
+            throw new AssertionError("lost a value");
+        }
+        return elapsed / (double) rounds;
+    }
+
+    private static void report(String name, int producers, ThreadSafetyMarker marker) throws InterruptedException {
+        final long sends = 2_000_000;
+        // warm up the same paths before timing them
+        uncontended(sends, marker);
+        run(producers, sends / 10, marker);
+        final double roundTrip = uncontended(sends * 5, marker);
+        final Result result = run(producers, sends, marker);
+        System.out.printf(
+            "%-16s %6.1f ns/send+recv uncontended | %d producer(s): %6.1f ns/send, %5.1f%% received%n",
+            name,
+            roundTrip,
+            producers,
+            result.nanosPerSend,
+            100.0 * result.received / (producers * sends)
+        );
+    }
+
+    /**
+     * The contended numbers only mean something with a core free for every producer and the consumer.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(Runtime.getRuntime().availableProcessors() + " cores available");
+        report("locked", 1, null);
+        report("single producer", 1, ThreadSafetyMarker.SINGLE_PRODUCER);
+        report("concurrent", 1, ThreadSafetyMarker.CONCURRENT);
+        report("locked", 4, null);
+        report("concurrent", 4, ThreadSafetyMarker.CONCURRENT);
+    }
+}